@@ -0,0 +1,102 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * PER CALL MAILBOX
+ *
+ * Runs the operations for one call (forking commands, transcription, teardown)
+ * strictly one at a time in submission order, on threads borrowed from a shared
+ * pool so different calls still proceed in parallel.  No thread is held while the
+ * mailbox is empty and an idle mailbox is just an empty queue and a state flag.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+public class CallMailbox implements Executor {
+
+    static int BATCH_SIZE = 16;
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final AtomicIntegerFieldUpdater<CallMailbox> STATE = AtomicIntegerFieldUpdater.newUpdater(CallMailbox.class, "state");
+
+    private final Executor pool;
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private volatile int state = IDLE;
+
+
+    public CallMailbox(Executor pool) {
+        this.pool = pool;
+    }
+
+
+    @Override
+    public void execute(Runnable task) {
+        queue.add(task);
+        schedule();
+    }
+
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+
+    private void schedule() {
+        if (STATE.compareAndSet(this, IDLE, SCHEDULED)) {
+            try {
+                pool.execute(this::drain);
+            } catch (RuntimeException ex) {
+                state = IDLE;
+                throw ex;
+            }
+        }
+    }
+
+
+// Run a batch then hand the thread back so one busy call cannot monopolise a pool
+// thread, rescheduling if more work arrived meanwhile
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = queue.poll();
+                if (task == null) break;
+
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    System.out.println("Call operation failed: " + ex);
+                }
+            }
+
+        } finally {
+            state = IDLE;
+            if (!queue.isEmpty()) schedule();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * CONTROLLER CLUSTER CALL REGISTRY
+ *
+ * Shares the calls each controller node knows about with the other nodes so a
+ * forking or transcription request can arrive at any node behind a load balancer.
+ * Gateway notifications only reach the node that registered with the gateway, that
+ * node owns the call and is where requests for it are forwarded.
+ *
+ * Nodes talk over plain TCP, one JSON message per line.  Each node connects out to
+ * every peer to send and accepts connections from every peer to receive, so there is
+ * no election or leader.  A sending connection starts with a hello carrying the node
+ * ID and its cluster port followed by every call the node holds, after which call
+ * added, updated and removed messages follow as they happen.  The receiver drops
+ * what it held for that node on each hello and when the connection closes, so a
+ * reconnect always leaves a consistent copy.
+ *
+ * Connections are only accepted from the configured peers and a node's servlet URL,
+ * where its calls' requests are forwarded, comes from its peer entry, never from the
+ * connection.  An idle sender sends a heartbeat every couple of seconds and a
+ * connection that goes quiet for longer than the peer timeout is closed, so a node
+ * that died without closing its connections has its calls dropped.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class ClusterRegistry implements Closeable {
+
+    static int RECONNECT_MSECS = 2000;
+    static int CONNECT_TIMEOUT_MSECS = 2000;
+    static int SEND_QUEUE_SIZE = 50000;
+    static int HEARTBEAT_MSECS = 2000;
+    static int PEER_TIMEOUT_MSECS = 10000;
+
+    public static class RemoteCall {
+        final String node;
+        final String gwaddr;
+        final String callid;
+        final String guid;
+        final String called;
+
+        RemoteCall(String node, String gwaddr, String callid, String guid, String called) {
+            this.node = node;
+            this.gwaddr = gwaddr;
+            this.callid = callid;
+            this.guid = guid;
+            this.called = called;
+        }
+    }
+
+    private final String nodeid;
+    private final String nodeurl;
+    private final Supplier<Collection<GatewayCall>> snapshot;
+    private final ServerSocket server;
+    private final List<Peer> peers = new ArrayList<>();
+    private final Map<String, String> nodeurls = new ConcurrentHashMap<>();
+    private final Map<String, RemoteCall> remote = new ConcurrentHashMap<>();
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    private final AtomicInteger inboundnum = new AtomicInteger();
+    private volatile boolean running = true;
+
+
+// Peers are given by cluster address with the servlet URL of the node there, null
+// for the peer's host with this node's servlet port and path
+
+    public ClusterRegistry(String nodeid, String nodeurl, InetSocketAddress listen, Map<InetSocketAddress, String> peeraddrs,
+                           Supplier<Collection<GatewayCall>> snapshot) throws IOException {
+        this.nodeid = nodeid;
+        this.nodeurl = nodeurl;
+        this.snapshot = snapshot;
+
+        URL own = new URL(nodeurl);
+        for (Map.Entry<InetSocketAddress, String> entry : peeraddrs.entrySet()) {
+            InetSocketAddress addr = entry.getKey();
+            String url = entry.getValue();
+            if (url == null) url = new URL(own.getProtocol(), addr.getHostString(), own.getPort(), own.getFile()).toString();
+            peers.add(new Peer(addr, url));
+        }
+
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(listen);
+        daemon(this::accept, "cluster-accept").start();
+
+        for (Peer peer : peers) {
+            daemon(peer::run, "cluster-peer-" + peer.addr.getHostString() + ":" + peer.addr.getPort()).start();
+        }
+    }
+
+
+    public String getNodeId() {
+        return nodeid;
+    }
+
+
+    public void callAdded(GatewayCall gwcall) {
+        broadcast(callMessage("put", gwcall));
+    }
+
+
+// Sent as another put, the receiver replaces what it held for the call's GUID
+
+    public void callUpdated(GatewayCall gwcall) {
+        broadcast(callMessage("put", gwcall));
+    }
+
+
+    public void callRemoved(GatewayCall gwcall) {
+        broadcast(callMessage("remove", gwcall));
+    }
+
+
+// Looked up the same way as local calls, by GUID then by called number
+
+    public RemoteCall find(String id) {
+        RemoteCall call = remote.get("GUID:" + id);
+        if (call == null) call = remote.get("DEST:" + id);
+        return call;
+    }
+
+
+    public String getNodeUrl(String node) {
+        return nodeurls.get(node);
+    }
+
+
+    public JSONObject getStatus() {
+        JSONArray list = new JSONArray();
+        peers.forEach((peer) -> list.put(new JSONObject()
+                .put("peer", peer.addr.getHostString() + ":" + peer.addr.getPort())
+                .put("connected", peer.connected)
+                .put("queued", peer.queue.size())));
+
+        return new JSONObject()
+                .put("node", nodeid)
+                .put("url", nodeurl)
+                .put("peers", list)
+                .put("nodes", new JSONObject(nodeurls))
+                .put("remoteCalls", remote.keySet().stream().filter((k) -> k.startsWith("GUID:")).count());
+    }
+
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException ex) { }
+        peers.forEach(Peer::close);
+    }
+
+
+    private String callMessage(String type, GatewayCall gwcall) {
+        return new JSONObject()
+                .put("type", type)
+                .put("node", nodeid)
+                .put("gateway", gwcall.gwaddr)
+                .put("callID", gwcall.callid)
+                .put("guid", gwcall.guid)
+                .put("called", gwcall.called == null ? JSONObject.NULL : gwcall.called)
+                .toString();
+    }
+
+
+    private void broadcast(String msg) {
+        peers.forEach((peer) -> peer.send(msg));
+    }
+
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket sock = server.accept();
+                daemon(() -> receive(sock), "cluster-in-" + inboundnum.incrementAndGet()).start();
+
+            } catch (IOException ex) {
+                if (running) System.out.println("Cluster accept failed: " + ex.getMessage());
+            }
+        }
+    }
+
+
+    private void receive(Socket sock) {
+
+        String node = null;
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream(), StandardCharsets.UTF_8))) {
+            sock.setSoTimeout(PEER_TIMEOUT_MSECS);
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                JSONObject msg = new JSONObject(line);
+                String type = msg.getString("type");
+
+                if (node == null && !"hello".equals(type)) continue;
+                String from = node;
+
+                switch (type) {
+                    case "hello":
+                        Peer peer = configuredPeer(sock.getInetAddress(), msg.optInt("listen"));
+                        if (peer == null) {
+                            System.out.println("Cluster connection from " + sock.getRemoteSocketAddress() + " refused, not a configured peer");
+                            return;
+                        }
+                        if (node != null && inbound.remove(node, sock)) forget(node);
+                        node = msg.getString("node");
+                        nodeurls.put(node, peer.url);
+                        inbound.put(node, sock);
+                        forget(node);
+                        System.out.println("Cluster node " + node + " connected from " + sock.getRemoteSocketAddress());
+                        break;
+
+                    case "put":
+                        RemoteCall call = new RemoteCall(from, msg.getString("gateway"), msg.getString("callID"),
+                                                         msg.getString("guid"), msg.optString("called", null));
+                        RemoteCall prev = remote.put("GUID:" + call.guid, call);
+                        if (prev != null && prev.called != null && !prev.called.equals(call.called)) {
+                            remote.remove("DEST:" + prev.called, prev);
+                        }
+                        if (call.called != null) remote.put("DEST:" + call.called, call);
+                        break;
+
+                    case "remove":
+                        String callid = msg.getString("callID");
+                        remote.computeIfPresent("GUID:" + msg.getString("guid"), (k, c) -> matches(c, from, callid) ? null : c);
+                        if (msg.has("called") && !msg.isNull("called")) {
+                            remote.computeIfPresent("DEST:" + msg.getString("called"), (k, c) -> matches(c, from, callid) ? null : c);
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+
+        } catch (IOException | JSONException ex) {
+            if (running) System.out.println("Cluster connection from " + sock.getRemoteSocketAddress() + " failed: " + ex.getMessage());
+
+        } finally {
+// A peer that reconnected before the old connection was seen to close has already
+// sent a fresh snapshot which must be kept
+
+            if (node != null && inbound.remove(node, sock)) {
+                System.out.println("Cluster node " + node + " disconnected");
+                forget(node);
+            }
+            try {
+                sock.close();
+            } catch (IOException ex) { }
+        }
+    }
+
+
+// Configured peer at the address, picked by its cluster port when there are several
+
+    private Peer configuredPeer(InetAddress from, int listen) {
+        Peer found = null;
+        int count = 0;
+        for (Peer peer : peers) {
+            if (!peer.isAt(from)) continue;
+            if (peer.addr.getPort() == listen) return peer;
+            found = peer;
+            count++;
+        }
+        return count == 1 ? found : null;
+    }
+
+
+    private static boolean matches(RemoteCall call, String node, String callid) {
+        return call.node.equals(node) && call.callid.equals(callid);
+    }
+
+
+    private void forget(String node) {
+        remote.values().removeIf((c) -> c.node.equals(node));
+    }
+
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+
+// Outbound connection to one peer, sending is decoupled from call handling by a
+// queue.  If the queue overflows the connection is dropped so the reconnect hello
+// and snapshot bring the peer back in step rather than silently losing updates.
+
+    private class Peer {
+        final InetSocketAddress addr;
+        final String url;
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>(SEND_QUEUE_SIZE);
+        volatile boolean connected;
+        volatile boolean overflow;
+        volatile Socket sock;
+
+        Peer(InetSocketAddress addr, String url) {
+            this.addr = addr;
+            this.url = url;
+        }
+
+// Host names are looked up again each time so a peer that moves is still recognised
+
+        boolean isAt(InetAddress from) {
+            if (!addr.isUnresolved() && addr.getAddress().equals(from)) return true;
+            try {
+                for (InetAddress a : InetAddress.getAllByName(addr.getHostString())) {
+                    if (a.equals(from)) return true;
+                }
+            } catch (UnknownHostException ex) { }
+            return false;
+        }
+
+        void send(String msg) {
+            if (connected && !queue.offer(msg)) overflow = true;
+        }
+
+        void run() {
+            while (running) {
+                try (Socket s = new Socket()) {
+                    sock = s;
+                    s.connect(addr, CONNECT_TIMEOUT_MSECS);
+                    s.setTcpNoDelay(true);
+
+                    Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                    queue.clear();
+                    overflow = false;
+                    connected = true;
+
+                    out.write(new JSONObject().put("type", "hello").put("node", nodeid).put("listen", server.getLocalPort()).toString());
+                    out.write('\n');
+                    for (GatewayCall gwcall : snapshot.get()) {
+                        out.write(callMessage("put", gwcall));
+                        out.write('\n');
+                    }
+                    out.flush();
+
+                    String heartbeat = new JSONObject().put("type", "heartbeat").put("node", nodeid).toString();
+
+                    while (running && !overflow) {
+                        String msg = queue.poll(HEARTBEAT_MSECS, TimeUnit.MILLISECONDS);
+                        if (msg == null) msg = heartbeat;
+
+                        do {
+                            out.write(msg);
+                            out.write('\n');
+                        } while ((msg = queue.poll()) != null);
+                        out.flush();
+                    }
+
+                } catch (IOException ex) {
+                    if (connected) System.out.println("Cluster peer " + addr + " lost: " + ex.getMessage());
+
+                } catch (InterruptedException ex) {
+                    return;
+
+                } finally {
+                    connected = false;
+                }
+
+                try {
+                    Thread.sleep(RECONNECT_MSECS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            Socket s = sock;
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException ex) { }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * CONFIGURATION FILE WATCHER
+ * 
+ * Calls back whenever a configuration file is created or modified so settings can
+ * be reloaded without a redeploy.  Events are collected for a short settle time so
+ * an editor saving in several steps results in a single reload.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.function.Consumer;
+
+public class ConfigFileWatcher {
+
+    static int SETTLE_MSECS = 500;
+
+    private final Path file;
+    private final Consumer<Path> onChange;
+    private final WatchService watcher;
+
+
+    public ConfigFileWatcher(Path file, Consumer<Path> onChange) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+
+        watcher = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+
+        Thread t = new Thread(this::run, "config-watch-" + file.getFileName());
+        t.setDaemon(true);
+        t.start();
+    }
+
+
+    public void close() {
+        try { watcher.close(); } catch (IOException ex) { }
+    }
+
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() != OVERFLOW && file.getFileName().equals(event.context())) changed = true;
+                }
+                key.reset();
+
+                if (changed) {
+                    Thread.sleep(SETTLE_MSECS);
+                    WatchKey more = watcher.poll();
+                    if (more != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+
+                    System.out.println("Reloading configuration from " + file);
+                    try {
+                        onChange.accept(file);
+                    } catch (RuntimeException ex) {
+                        System.out.println("Error reloading " + file + ": " + ex);
+                    }
+                }
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // Watcher closed
+        }
+    }
+}
@@ -19,11 +19,42 @@ package com.cisco.pt.gwxmf;
  * HTTP PUT request URLs:
  *      http://<host:port/path>/forking/<call_leg_ID>
  *      http://<host:port/path>/transcription/<call_leg_ID>
+ *      http://<host:port/path>/gateways/<gateway_host>  Add or re-address a
+ *                                                       gateway, optional JSON
+ *                                                       body item address
+ *
+ * HTTP DELETE request URLs:
+ *      http://<host:port/path>/gateways/<gateway_host>  Remove a gateway once its
+ *                                                       calls have cleared
+ *
+ * HTTP GET request URLs:
+ *      http://<host:port/path>/forking/<call_leg_ID>    Call and media forking status
+ *      http://<host:port/path>/gateways                 Health of all gateways and
+ *                                                       their transcription media
+ *                                                       quality
+ *      http://<host:port/path>/gateways/<gateway_IP>    Health of one gateway
+ *      http://<host:port/path>/pools                    Target pools and server usage
+ *      http://<host:port/path>/rules                    Automatic forking rules and
+ *                                                       match counts
+ *      http://<host:port/path>/cluster                  Cluster peers, replicated
+ *                                                       calls and gateway leases
+ *                                                       held
+ *      http://<host:port/path>/media                    RTP receive engine and port
+ *                                                       usage
+ *
+ * In a cluster, requests for a call held by another node are forwarded to that node.
+ *
+ * Commands to a gateway whose circuit breaker is open are refused with HTTP 503 and
+ * a Retry-After header, without waiting on the gateway.
  *
  * Request JSON body items for forking control:
  *      action          START or STOP
  *      calling         Target address and port
  *      called          Target address and port
+ *      pool            Name of a target pool to pick a media server and ports from,
+ *                      used instead of calling and called
+ *      maxDuration     Seconds after which forking is stopped if no STOP is received,
+ *                      optional, defaults to MaxForkingDuration
  *      
  * Request JSON body items for transcription:
  *      language        Locale code
@@ -31,9 +62,61 @@ package com.cisco.pt.gwxmf;
  *      
  * Servlet initialisation parameters:
  *      GatewayHostList Comma separated list of gateway hostnames or IP addresses
+ *      GatewayConfigFile
+ *                      File listing gateways, one host or host=address per line, used
+ *                      instead of GatewayHostList when present.  Watched for changes,
+ *                      gateways added or removed at runtime are written back to it
  *      ListenAddress   IP address for receiving gateway XMF notifications
  *      ListenPort      IP port for receiving gateway XMF notifications and servlet requests
  *      ListenPath      Servlet URL path for gateway XMF notifications
+ *      RegisterThreads Maximum number of gateway registrations run in parallel
+ *      TargetPoolFile  JSON file of named media server target pools, see TargetPool,
+ *                      watched for changes
+ *      ForkingRulesFile
+ *                      JSON file of rules for starting forking as soon as a call
+ *                      connects, see ForkingRules, watched for changes
+ *      MaxForkingDuration
+ *                      Default limit in seconds on a forking session, 0 for none.
+ *                      Forking ends with the call when it disconnects
+ *      ClusterListen   host:port this node accepts call registry updates from peers
+ *                      on, enables cluster mode, see ClusterRegistry
+ *      ClusterPeers    Comma separated host:port list of the other nodes'
+ *                      ClusterListen, only these may connect.  Requests are
+ *                      forwarded to the peer host on this node's servlet port and
+ *                      path, or to a URL given as host:port=url
+ *      ClusterNodeId   Name of this node in the cluster, defaults to its servlet
+ *                      address
+ *      LeaseDirectory  Directory shared by all nodes holding gateway ownership
+ *                      leases, when set each gateway is registered by just one node,
+ *                      see GatewayLeases
+ *      LeaseDuration   Seconds a gateway lease lasts without being renewed
+ *      RtpPortRange    low-high range of ports for receiving forked media for
+ *                      transcription, allocated in even/odd RTP/RTCP pairs
+ *      SharedRtpPorts  low-high range of ports that all transcription media is
+ *                      received on, streams told apart by source and SSRC, see
+ *                      MediaDemux.  Used instead of RtpPortRange when set.  Each
+ *                      port is bound once per receive thread with SO_REUSEPORT
+ *                      where available.  At least 2 ports, a call's two streams
+ *                      are received on different ports
+ *      ReceiveThreads  Number of threads receiving forked media
+ *      MediaQueueFrames
+ *                      Audio frames queued per stream for a slow transcription
+ *                      consumer before frames are dropped
+ *      MediaDropPolicy DROP_OLDEST or DROP_NEWEST, which frame is lost when a
+ *                      stream's queue is full
+ *      VirtualThreads  true to receive each media stream and run each transcription
+ *                      and per call operation on its own virtual thread, needs Java
+ *                      21 or later, otherwise platform threads are used as normal
+ *      HealthCheckInterval
+ *                      Seconds between health checks of target pool media servers
+ *      CommandThreads  Threads kept ready for per call operations (forking commands,
+ *                      transcription, teardown), more are started when all are busy.
+ *                      Ignored when VirtualThreads is in use
+ *      CoalesceWindow  Milliseconds forking commands for a call are held so repeated
+ *                      or cancelling START/STOP requests only send the net change
+ *      RegisterStagger Upper bound in milliseconds of random delay before each
+ *                      gateway is first registered or its lease is taken over,
+ *                      spreads load on fleet restart
  *
  * -----------------------------------------------------------------------------------
  * 1.0,  Paul Tindall, Cisco, 11 May 2018 Initial version, for PoC, not hardened
@@ -44,6 +127,16 @@ package com.cisco.pt.gwxmf;
  * 1.2,  Paul Tindall, Cisco, 10 Feb 2019 Bit of additional startup logging.
  *                                        Google TTS included in its own separate servlet as
  *                                        forking not required.
+ * 1.3,  19 Oct 2026 Staggered gateway registration with a per-gateway circuit
+ *                   breaker, timers on a shared wheel, gateway membership API
+ *                   and watched gateway config file.
+ *                   Per-call mailboxes, coalesced forking changes, target pools,
+ *                   forking rules with sampling and a maximum forking duration.
+ *                   Cluster peers with replicated calls and gateway leases.
+ *                   Selector based media receive on shared RTP ports, RTP jitter
+ *                   buffer, media queues and stream statistics.
+ *                   Optional virtual threads for media receive, transcription and
+ *                   per call operations.
  * -----------------------------------------------------------------------------------
  */
 
@@ -51,14 +144,41 @@ import static com.cisco.pt.gwxmf.MediaDirection.*;
 import com.cisco.schema.cisco_xmf.v1_0.*;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -74,6 +194,7 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.soap.SOAPBody;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.w3c.dom.Document;
@@ -86,15 +207,13 @@ import org.w3c.dom.Node;
 
     Add debug setting and configurable logging
     Check/implement synchronisation as needed for:
-        - Transaction ID
         - Create/delete of gwcall objects
-        - access to gwmap for recovery and inactivity count
     Clear zombied call ID entries from map
 ------------------------------------------------------------------------------------*/
 
 
 @WebServlet(name = "Forking",
-            urlPatterns = {"/forking/*", "/transcription/*"},
+            urlPatterns = {"/forking/*", "/transcription/*", "/gateways/*", "/pools", "/rules", "/cluster", "/media"},
             loadOnStartup = 1,
             initParams =
             {
@@ -115,15 +234,43 @@ import org.w3c.dom.Node;
 public class Forking extends HttpServlet {
     
     static final String XMF_XMLNS = "http://www.cisco.com/schema/cisco_xmf/v1_0";
-    static int TICKER_INTERVAL_SECS = 5;
-    static int REGISTER_RETRY_TICKS = 2;
+    static int PROBE_GRACE_SECS = 10;
+    static int REGISTER_RETRY_SECS = 10;
+    static int REGISTER_THREADS = 8;
+    static int REGISTER_STAGGER_MSECS = 2000;
+    static int COMMAND_THREADS = 16;
+    static int DRAIN_CHECK_SECS = 5;
+    static int DRAIN_TIMEOUT_SECS = 900;
+    static int HEALTH_CHECK_SECS = 10;
+    static int MAX_FORKING_SECS = 0;
+    static int FORWARD_TIMEOUT_MSECS = 2000;
+    static final String FORWARDED_HEADER = "X-Forking-Forwarded-By";
 
     String app_listen_addr;    
     String app_listen_port = "80";    
     String app_listen_path = "/forking";    
+    String app_url;
+
+    ScheduledThreadPoolExecutor registrar;
+    ScheduledExecutorService leaseRenewer;
+    ExecutorService commander;
+    ForkingCoalescer coalescer;
+    ForkingReaper reaper;
+    HashedWheelTimer wheel;
+    Path gwconfig;
+    ConfigFileWatcher gwwatcher;
+    Path poolconfig;
+    ConfigFileWatcher poolwatcher;
+    volatile Map<String, TargetPool> pools = new LinkedHashMap<>();
+    Path rulesconfig;
+    ConfigFileWatcher ruleswatcher;
+    volatile ForkingRules rules = new ForkingRules(new ArrayList<>());
+    ClusterRegistry cluster;
+    GatewayLeases leases;
 
     ConcurrentHashMap<String, GatewayCall> callmap = new ConcurrentHashMap<>();         
     ConcurrentHashMap<String, GatewayXmf> gwmap = new ConcurrentHashMap<>();         
+    ConcurrentHashMap<String, String> gwhosts = new ConcurrentHashMap<>();
 
 
     @Override
@@ -134,34 +281,481 @@ public class Forking extends HttpServlet {
         
         if ((initp = getInitParameter("ListenPort")) != null) app_listen_port = initp;
         if ((initp = getInitParameter("ListenPath")) != null) app_listen_path = initp;
+        if ((initp = getInitParameter("RegisterThreads")) != null) REGISTER_THREADS = Integer.parseInt(initp);
+        if ((initp = getInitParameter("RegisterStagger")) != null) REGISTER_STAGGER_MSECS = Integer.parseInt(initp);
+        if ((initp = getInitParameter("GatewayConfigFile")) != null) gwconfig = Paths.get(initp);
+        if ((initp = getInitParameter("TargetPoolFile")) != null) poolconfig = Paths.get(initp);
+        if ((initp = getInitParameter("ForkingRulesFile")) != null) rulesconfig = Paths.get(initp);
+        if ((initp = getInitParameter("RtpPortRange")) != null) {
+            String[] range = initp.split("\\s*-\\s*");
+            MediaListener.setPortRange(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+        }
+        String sharedports = getInitParameter("SharedRtpPorts");
+        if ((initp = getInitParameter("ReceiveThreads")) != null) MediaReceiver.RECEIVE_THREADS = Integer.parseInt(initp);
+        boolean virtual = Boolean.parseBoolean(getInitParameter("VirtualThreads"));
+        if (virtual && !VirtualThreads.isAvailable()) {
+            System.out.println("Virtual threads need Java 21 or later, running on platform threads");
+            virtual = false;
+        }
+        if (virtual) MediaReceiver.STREAM_THREADS = VirtualThreads.factory("rtp-rx");
+        if ((initp = getInitParameter("MediaQueueFrames")) != null) MediaListener.QUEUE_FRAMES = Integer.parseInt(initp);
+        if ((initp = getInitParameter("MediaDropPolicy")) != null) MediaListener.QUEUE_POLICY = MediaQueue.Policy.valueOf(initp.trim().toUpperCase());
+        if ((initp = getInitParameter("LeaseDuration")) != null) GatewayLeases.LEASE_SECS = Integer.parseInt(initp);
+        if ((initp = getInitParameter("MaxForkingDuration")) != null) MAX_FORKING_SECS = Integer.parseInt(initp);
+        if ((initp = getInitParameter("HealthCheckInterval")) != null) HEALTH_CHECK_SECS = Integer.parseInt(initp);
+        if ((initp = getInitParameter("CommandThreads")) != null) COMMAND_THREADS = Integer.parseInt(initp);
+        if ((initp = getInitParameter("CoalesceWindow")) != null) ForkingCoalescer.WINDOW_MSECS = Long.parseLong(initp);
         app_listen_addr = getInitParameter("ListenAddress");
         if (app_listen_addr == null) {
             try {app_listen_addr = InetAddress.getLocalHost().getHostAddress();} catch (UnknownHostException ex) { }
         }
+
+        if (sharedports != null) {
+            String[] range = sharedports.split("\\s*-\\s*");
+            int low = Integer.parseInt(range[0]);
+            int high = Integer.parseInt(range[range.length - 1]);
+            if (high - low + 1 < 2) throw new ServletException("SharedRtpPorts " + sharedports + " must be a range of at least 2 ports");
+            try {
+                MediaDemux.setShared(new MediaDemux(app_listen_addr, low, high));
+                System.out.printf("%-40s%s%n", "Shared media ports:", sharedports);
+            } catch (IOException ex) {
+                throw new ServletException("Unable to bind shared media ports " + sharedports, ex);
+            }
+        }
         
         String app_path = "http://" + app_listen_addr + ":" + app_listen_port + config.getServletContext().getContextPath();
-        String appurl = app_path + app_listen_path;
+        app_url = app_path + app_listen_path;
 
+        Map<String, String> gateways = new LinkedHashMap<>();
         String gwlist = getInitParameter("GatewayHostList");
+        if (gwlist != null) Stream.of(gwlist.split("\\s*,\\s*")).filter((gwhost) -> !gwhost.isEmpty()).forEach((gwhost) -> gateways.put(gwhost, null));
+
+        if (gwconfig != null && Files.exists(gwconfig)) {
+            try {
+                gateways.clear();
+                gateways.putAll(readGatewayConfig(gwconfig));
+                gwlist = gwconfig + " " + gateways.keySet();
+            } catch (IOException ex) {
+                throw new ServletException("Error reading gateway configuration " + gwconfig, ex);
+            }
+        }
 
         System.out.printf("%n%-40s%s%n", "Current working directory:", Paths.get(".").toAbsolutePath().normalize().toString());
         System.out.printf("%-40s%s%n", "Servlet base URL:", app_path);
-        System.out.printf("%-40s%s%n", "Configure IOS uc wsapi XMF URL to:", appurl);
+
+        String nodeid = getInitParameter("ClusterNodeId");
+        if (nodeid == null) nodeid = app_listen_addr + ":" + app_listen_port;
+
+        if ((initp = getInitParameter("ClusterListen")) != null) {
+            Map<InetSocketAddress, String> peers = new LinkedHashMap<>();
+            String peerlist = getInitParameter("ClusterPeers");
+            if (peerlist != null) Stream.of(peerlist.split("\\s*,\\s*")).filter((p) -> !p.isEmpty()).forEach((p) -> {
+                String[] parts = p.split("\\s*=\\s*", 2);
+                peers.put(socketAddress(parts[0]), parts.length > 1 ? parts[1] : null);
+            });
+
+            try {
+                cluster = new ClusterRegistry(nodeid, app_path, socketAddress(initp), peers,
+                        () -> callmap.entrySet().stream().filter((e) -> e.getKey().startsWith("CALL:")).map(Map.Entry::getValue).collect(Collectors.toList()));
+                System.out.printf("%-40s%s%n", "Cluster node:", cluster.getNodeId());
+            } catch (IOException ex) {
+                throw new ServletException("Unable to start cluster listener on " + initp, ex);
+            }
+        }
+
+        if ((initp = getInitParameter("LeaseDirectory")) != null) {
+            try {
+                leases = new GatewayLeases(Paths.get(initp), nodeid, this::staggerAddGateway, this::removeGateway);
+                System.out.printf("%-40s%s%n", "Gateway leases:", initp);
+            } catch (IOException ex) {
+                throw new ServletException("Unable to use gateway lease directory " + initp, ex);
+            }
+        }
+
+        System.out.printf("%-40s%s%n", "Configure IOS uc wsapi XMF URL to:", app_url);
         System.out.printf("%-40s%s%n", "Gateway list:", gwlist);
 
-        Stream.of(gwlist.split("\\s*,\\s*")).forEach((gwhost) -> {
+// Resolve and register gateways in the background so init is not held up by slow or
+// unreachable hosts, a random delay for each avoids hitting the whole fleet at once
+
+        wheel = new HashedWheelTimer("gw-wheel", 100, TimeUnit.MILLISECONDS, 512);
+
+        AtomicInteger threadnum = new AtomicInteger();
+        registrar = new ScheduledThreadPoolExecutor(REGISTER_THREADS, (r) -> {
+            Thread t = new Thread(r, "gw-register-" + threadnum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        AtomicInteger cmdthreadnum = new AtomicInteger();
+        if (virtual) commander = VirtualThreads.perTaskExecutor("gw-command");
+        if (commander == null) commander = new ThreadPoolExecutor(COMMAND_THREADS, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (r) -> {
+            Thread t = new Thread(r, "gw-command-" + cmdthreadnum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        MediaListener.setConsumerPool(commander);
+        coalescer = new ForkingCoalescer(wheel, this::applyForking);
+        reaper = new ForkingReaper(wheel, this::reapForking);
+
+// Leases are renewed on a thread of their own so a round of slow registrations on the
+// registrar pool can never hold up renewal past the lease period
+
+        if (leases != null) {
+            gateways.forEach(leases::want);
+            leaseRenewer = Executors.newSingleThreadScheduledExecutor((r) -> {
+                Thread t = new Thread(r, "gw-lease");
+                t.setDaemon(true);
+                return t;
+            });
+            leaseRenewer.scheduleWithFixedDelay(this::renewLeases, 0, GatewayLeases.renewMillis(), TimeUnit.MILLISECONDS);
+
+        } else {
+            gateways.forEach(this::staggerAddGateway);
+        }
+
+        if (gwconfig != null) {
+            try {
+                gwwatcher = new ConfigFileWatcher(gwconfig, this::reloadGateways);
+            } catch (IOException ex) {
+                System.out.println("Unable to watch gateway configuration " + gwconfig + ": " + ex.getMessage());
+            }
+        }
+
+        if (poolconfig != null) {
+            reloadPools(poolconfig);
+            try {
+                poolwatcher = new ConfigFileWatcher(poolconfig, this::reloadPools);
+            } catch (IOException ex) {
+                System.out.println("Unable to watch target pool configuration " + poolconfig + ": " + ex.getMessage());
+            }
+
+            registrar.scheduleWithFixedDelay(this::checkMediaServers, 0, HEALTH_CHECK_SECS, TimeUnit.SECONDS);
+        }
+
+        if (rulesconfig != null) {
+            reloadRules(rulesconfig);
             try {
-                String gwip = InetAddress.getByName(gwhost).getHostAddress();
-                GatewayXmf gw = new GatewayXmf(gwip, appurl);
-                gwmap.put(gwip, gw);
-                gw.register();
+                ruleswatcher = new ConfigFileWatcher(rulesconfig, this::reloadRules);
+            } catch (IOException ex) {
+                System.out.println("Unable to watch forking rules " + rulesconfig + ": " + ex.getMessage());
+            }
+        }
+    }
+
+
+    private static InetSocketAddress socketAddress(String hostport) {
+        int sep = hostport.lastIndexOf(':');
+        return new InetSocketAddress(hostport.substring(0, sep), Integer.parseInt(hostport.substring(sep + 1)));
+    }
+
+
+    private void reloadRules(Path file) {
+        try {
+            rules = ForkingRules.load(file);
+            System.out.printf("%-40s%s%n", "Forking rules:", rules.getStatus().length());
+        } catch (IOException | JSONException | IllegalArgumentException ex) {
+            System.out.println("Error loading forking rules from " + file + ", rules unchanged: " + ex.getMessage());
+        }
+    }
+
+
+// Servers shared by several pools are only probed once, each probe on its own
+// command thread so one unresponsive server does not hold up the others
+
+    private void checkMediaServers() {
+        Set<MediaServer> servers = new HashSet<>();
+        pools.values().forEach((pool) -> servers.addAll(pool.servers));
+        servers.forEach((server) -> commander.execute(server::probe));
+    }
+
+
+    private void reloadPools(Path file) {
+        try {
+            pools = TargetPool.load(file, pools);
+            System.out.printf("%-40s%s%n", "Target pools:", pools.keySet());
+        } catch (IOException | JSONException | IllegalArgumentException ex) {
+            System.out.println("Error loading target pools from " + file + ", pools unchanged: " + ex.getMessage());
+        }
+    }
 
-            } catch (GatewayXmfException | SOAPException | UnknownHostException ex) {
-                System.out.println("Error creating gateway " + gwhost + ": " + ex.getMessage());
+
+    @Override
+    public void destroy() {
+        if (gwwatcher != null) gwwatcher.close();
+        if (poolwatcher != null) poolwatcher.close();
+        if (ruleswatcher != null) ruleswatcher.close();
+        if (cluster != null) cluster.close();
+        if (leaseRenewer != null) stopLeaseRenewal();
+        if (leases != null) leases.close();
+        MediaDemux.setShared(null);
+        MediaReceiver.closeShared();
+        if (wheel != null) wheel.stop();
+        if (registrar != null) registrar.shutdownNow();
+        if (commander != null) commander.shutdownNow();
+        super.destroy();
+    }
+
+
+// Gateway membership changes, all run on the registrar pool as they may block on DNS
+// or the gateway.  A gateway being removed is drained, it stays known while its calls
+// clear (no new ones are tracked) and is then unregistered.
+
+// With leases a configured gateway is only added once this node holds its lease
+
+    private void configureGateway(String gwhost, String gwaddr) {
+        if (leases != null) {
+            leases.want(gwhost, gwaddr);
+        } else {
+            registrar.execute(() -> addGateway(gwhost, gwaddr));
+        }
+    }
+
+
+    private boolean unconfigureGateway(String gwhost) {
+        boolean known = leases != null && leases.getWanted().contains(gwhost);
+        if (leases != null) leases.unwant(gwhost);
+        return removeGateway(gwhost) || known;
+    }
+
+
+// A renewal round in progress is left to finish rather than interrupted, as an
+// interrupt closes the lease file channel part way through an update
+
+    private void stopLeaseRenewal() {
+        leaseRenewer.shutdown();
+        try {
+            if (!leaseRenewer.awaitTermination(GatewayLeases.renewMillis(), TimeUnit.MILLISECONDS)) {
+                System.out.println("Gateway lease renewal still running at shutdown");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void renewLeases() {
+        try {
+            leases.renew();
+        } catch (RuntimeException ex) {
+            System.out.println("Gateway lease renewal failed: " + ex);
+        }
+    }
+
+
+// Registrations are spread over a random delay so a node starting with many gateways,
+// or taking over many leases at once, does not register with them all together
+
+// With leases the lease may have been lost again during the delay, the gateway is then
+// left for the node that now holds it
+
+    private void staggerAddGateway(String gwhost, String gwaddr) {
+        long delay = REGISTER_STAGGER_MSECS > 0 ? ThreadLocalRandom.current().nextLong(REGISTER_STAGGER_MSECS) : 0;
+        registrar.schedule(() -> {
+            if (leases == null || leases.holds(gwhost)) addGateway(gwhost, gwaddr);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void addGateway(String gwhost, String gwaddr) {
+        try {
+            String gwip = gwaddr != null ? gwaddr : InetAddress.getByName(gwhost).getHostAddress();
+            String oldip = gwhosts.put(gwhost, gwip);
+
+            if (oldip != null && !oldip.equals(gwip) && !gwhosts.containsValue(oldip)) {
+                System.out.println("Gateway " + gwhost + " re-addressed from " + oldip + " to " + gwip);
+                drainGateway(oldip);
+            }
+
+            GatewayXmf gw = gwmap.get(gwip);
+
+            if (gw == null) {
+                gw = new GatewayXmf(gwip, app_url);
+                if (gwmap.putIfAbsent(gwip, gw) != null) return;
+
+            } else if (gw.isDraining()) {
+                System.out.println("Gateway " + gwip + " added back while draining");
+                synchronized (gw) {
+                    gw.drainStarted = 0;
+                }
+
+            } else {
+                return;
+            }
+
+            if (gw.registering.compareAndSet(false, true)) registerGateway(gw);
+
+        } catch (SOAPException | UnknownHostException ex) {
+            System.out.println("Error creating gateway " + gwhost + ": " + ex.getMessage());
+        }
+    }
+
+
+    private boolean removeGateway(String gwhost) {
+        String gwip = gwhosts.remove(gwhost);
+        if (gwip != null && !gwhosts.containsValue(gwip)) {
+            drainGateway(gwip);
+        }
+        return gwip != null;
+    }
+
+
+    private void drainGateway(String gwip) {
+
+        GatewayXmf gw = gwmap.get(gwip);
+        if (gw == null) return;
+
+        synchronized (gw) {
+            if (gw.isDraining()) return;
+            gw.drainStarted = System.currentTimeMillis();
+            if (gw.keepalive != null) gw.keepalive.cancel();
+            gw.keepalive = wheel.schedule(() -> checkDrain(gw), 0, TimeUnit.MILLISECONDS);
+        }
+
+        System.out.println("Draining gateway " + gwip);
+    }
+
+
+    private void checkDrain(GatewayXmf gw) {
+
+        if (!gw.isDraining()) return;
+
+        String prefix = "CALL:" + gw.iphost + ":";
+        long calls = callmap.keySet().stream().filter((k) -> k.startsWith(prefix)).count();
+
+        if (calls > 0 && System.currentTimeMillis() - gw.drainStarted < 1000L * DRAIN_TIMEOUT_SECS) {
+            synchronized (gw) {
+                if (gw.isDraining()) gw.keepalive = wheel.schedule(() -> checkDrain(gw), DRAIN_CHECK_SECS, TimeUnit.SECONDS);
+            }
+
+        } else {
+            registrar.execute(() -> retireGateway(gw, prefix));
+        }
+    }
+
+
+    private void retireGateway(GatewayXmf gw, String prefix) {
+
+        synchronized (gw) {
+            if (!gw.isDraining() || !gwmap.remove(gw.iphost, gw)) return;
+        }
+
+        callmap.forEach((k, gwcall) -> {
+            if (k.startsWith(prefix)) {
+                System.out.println("Drain timeout, dropping call ID " + gwcall.callid + " on gateway " + gw.iphost);
+                removeCall(gw.iphost, gwcall.callid, false);
             }
         });
-        
-        (new Timer()).scheduleAtFixedRate(new GatewayActivityTicker(), 0, 1000 * TICKER_INTERVAL_SECS);
+
+        try {
+            if (gw.active) gw.unregister();
+        } catch (GatewayXmfException ex) {
+            System.out.println("Error unregistering from gateway " + gw.iphost + ": " + ex.getMessage());
+        }
+
+        System.out.println("Gateway " + gw.iphost + " removed");
+    }
+
+
+    private void reloadGateways(Path file) {
+
+        Map<String, String> gateways;
+
+        try {
+            gateways = readGatewayConfig(file);
+        } catch (IOException ex) {
+            System.out.println("Error reading gateway configuration " + file + ", gateways unchanged: " + ex.getMessage());
+            return;
+        }
+
+        new ArrayList<>(leases == null ? gwhosts.keySet() : leases.getWanted()).stream()
+                .filter((gwhost) -> !gateways.containsKey(gwhost)).forEach(this::unconfigureGateway);
+        gateways.forEach(this::configureGateway);
+    }
+
+
+    private Map<String, String> readGatewayConfig(Path file) throws IOException {
+
+        Map<String, String> gateways = new LinkedHashMap<>();
+
+        Files.readAllLines(file, StandardCharsets.UTF_8).forEach((line) -> {
+            Stream.of(line.replaceAll("#.*", "").split("[\\s,]+")).filter((item) -> !item.isEmpty()).forEach((item) -> {
+                String[] hostaddr = item.split("=", 2);
+                gateways.put(hostaddr[0], hostaddr.length > 1 ? hostaddr[1] : null);
+            });
+        });
+
+        return gateways;
+    }
+
+
+    private synchronized void writeGatewayConfig(String gwhost, String gwaddr, boolean add) throws IOException {
+
+        if (gwconfig == null) return;
+
+        Map<String, String> gateways = new TreeMap<>();
+        if (Files.exists(gwconfig)) {
+            gateways.putAll(readGatewayConfig(gwconfig));
+        } else {
+            gwhosts.keySet().forEach((h) -> gateways.put(h, null));
+        }
+
+        if (add) {
+            gateways.put(gwhost, gwaddr);
+        } else {
+            gateways.remove(gwhost);
+        }
+
+        StringBuilder content = new StringBuilder("# Gateways for media forking controller, host or host=address\n");
+        gateways.forEach((h, a) -> content.append(h).append(a == null ? "" : "=" + a).append('\n'));
+
+        Path tmp = gwconfig.resolveSibling(gwconfig.getFileName() + ".tmp");
+        Files.write(tmp, content.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, gwconfig, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+// Keep-alive for each gateway is a single timeout on the wheel set to when it is next
+// due, either its probe deadline while active or the retry time while not registered.
+// Registration is run on the registrar pool, never on the wheel thread.
+
+    private void registerGateway(GatewayXmf gw) {
+        try {
+            gw.register();
+        } catch (GatewayXmfException ex) {
+            System.out.println("Error registering to gateway " + gw.iphost + ": " + ex.getMessage());
+        } finally {
+            gw.registering.set(false);
+            scheduleKeepAlive(gw, 1000L * (gw.active ? gw.probeInterval + PROBE_GRACE_SECS : REGISTER_RETRY_SECS));
+        }
+    }
+
+
+    void scheduleKeepAlive(GatewayXmf gw, long delay) {
+        synchronized (gw) {
+            if (gw.isDraining()) return;
+            if (gw.keepalive != null) gw.keepalive.cancel();
+            gw.keepalive = wheel.schedule(() -> checkKeepAlive(gw), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private void checkKeepAlive(GatewayXmf gw) {
+
+        if (gwmap.get(gw.iphost) != gw || gw.isDraining()) return;
+
+        long due = gw.active ? gw.lastContact + 1000L * (gw.probeInterval + PROBE_GRACE_SECS)
+                             : gw.lastRegister + 1000L * REGISTER_RETRY_SECS;
+        long now = System.currentTimeMillis();
+
+        if (now < due) {
+            scheduleKeepAlive(gw, due - now);
+
+        } else if (gw.registering.compareAndSet(false, true)) {
+            System.out.println("Retrying gateway IP: " + gw.iphost + ", Active: " + gw.active + ", Inactive for: " + (now - gw.lastContact) / 1000 + "s");
+            gw.active = false;
+            registrar.execute(() -> registerGateway(gw));
+        }
     }
     
     
@@ -173,12 +767,34 @@ public class Forking extends HttpServlet {
         if (req.getPathInfo() == null || (pathitems = req.getPathInfo().split("/")).length < 2) {
             resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid URL path, missing mandatory fields");                
 
+        } else if ("/gateways".equals(req.getServletPath())) {
+            String gwhost = pathitems[1];
+            String content = readContent(req);
+
+            try {
+                String gwaddr = content.trim().isEmpty() ? null : new JSONObject(content).optString("address", null);
+                System.out.println("\nAdding gateway " + gwhost + (gwaddr == null ? "" : " at " + gwaddr));
+                writeGatewayConfig(gwhost, gwaddr, true);
+                configureGateway(gwhost, gwaddr);
+
+                resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(new JSONObject().put("gateway", gwhost).put("address", gwaddr));
+                }
+
+            } catch (JSONException ex) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid request format: " + ex.getMessage());
+            }
+
         } else {    
             String callid = pathitems[1];            
-            GatewayCall gwcall = callmap.get("GUID:" + callid);
-            if (gwcall == null) gwcall = callmap.get("DEST:" + callid);
+            GatewayCall gwcall = findCall(callid);
             
-            if (gwcall == null) {
+            if (gwcall == null && forwardRequest(req, resp, callid)) {
+                return;
+
+            } else if (gwcall == null) {
                 resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Call with ID " + callid + " does not exist");                
                 
             } else if (!gwmap.containsKey(gwcall.gwaddr)) {                
@@ -191,16 +807,10 @@ public class Forking extends HttpServlet {
                 String path = req.getServletPath();
                 System.out.println("\nRequest (" + path + ") for call ID " + callid + "\n");
 
-                BufferedReader streamReader = new BufferedReader(new InputStreamReader(req.getInputStream()));
-                StringBuilder reqcontent = new StringBuilder();
-                String inputStr;
-
-                while ((inputStr = streamReader.readLine()) != null) {
-                    reqcontent.append(inputStr);
-                }
+                String reqcontent = readContent(req);
 
                 try {
-                    JSONObject reqbody = new JSONObject(reqcontent.toString());
+                    JSONObject reqbody = new JSONObject(reqcontent);
                     System.out.println(reqbody.toString(4));
 
                     resp.setStatus(HttpServletResponse.SC_ACCEPTED);
@@ -210,11 +820,11 @@ public class Forking extends HttpServlet {
                     switch (path) {
 
                         case "/forking":
-                            doForking(gwcall, reqbody);
+                            rspbody = doForking(gwcall, reqbody);
                             break;
 
                         case "/transcription":
-                            rspbody = doTranscription(gwcall, reqbody);
+                            rspbody = await(gwcall.mailbox.submit(() -> doTranscription(gwcall, reqbody)));
                             break;
                     }
                     
@@ -230,39 +840,393 @@ public class Forking extends HttpServlet {
                 } catch (JSONException ex) {
                     resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid request format: " + ex.getMessage());
                     System.out.println("Invalid request JSON payload: " + ex.getMessage());
-                    System.out.println(reqcontent.toString());
+                    System.out.println(reqcontent);
 
                 } catch (MediaForkingException ex) {
                     String httperr = ex.getMessage();
                     if (ex.getCause() != null) httperr += ", caused by " + ex.getCause().getMessage();
-                    resp.sendError(HttpServletResponse.SC_BAD_REQUEST, httperr);
+
+                    if (ex.getCause() instanceof GatewayUnavailableException) {
+                        resp.setHeader("Retry-After", Long.toString(((GatewayUnavailableException) ex.getCause()).getRetryAfterSecs()));
+                        resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, httperr);
+
+                    } else {
+                        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, httperr);
+                    }
                 }
             }
         }                    
     }
 
 
-    private void doForking(GatewayCall gwcall, JSONObject forkreq) throws MediaForkingException {
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+
+        String[] pathitems;
+
+        if (!"/gateways".equals(req.getServletPath())) {
+            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "DELETE not supported on " + req.getServletPath());
+
+        } else if (req.getPathInfo() == null || (pathitems = req.getPathInfo().split("/")).length < 2) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid URL path, missing mandatory fields");
+
+        } else if (!unconfigureGateway(pathitems[1])) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Gateway " + pathitems[1] + " does not exist");
+
+        } else {
+            System.out.println("\nRemoving gateway " + pathitems[1]);
+            writeGatewayConfig(pathitems[1], null, false);
+            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        }
+    }
+
+
+// Passes a request for a call held by another cluster node on to that node and relays
+// its response.  Forwarded requests are never forwarded again, so nodes with
+// differing views of the registry cannot bounce a request between them.
+
+    private boolean forwardRequest(HttpServletRequest req, HttpServletResponse resp, String callid) throws IOException {
+
+        if (cluster == null || req.getHeader(FORWARDED_HEADER) != null) return false;
+
+        ClusterRegistry.RemoteCall owner = cluster.find(callid);
+        String nodeurl = owner == null ? null : cluster.getNodeUrl(owner.node);
+        if (nodeurl == null) return false;
+
+        String url = nodeurl + req.getServletPath() + req.getPathInfo();
+        System.out.println("\nForwarding " + req.getMethod() + " for call ID " + callid + " to node " + owner.node + " at " + url);
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod(req.getMethod());
+        conn.setRequestProperty(FORWARDED_HEADER, cluster.getNodeId());
+        conn.setConnectTimeout(FORWARD_TIMEOUT_MSECS);
+
+// A transcription runs until the party stops speaking, however long that is, so its
+// response is waited for without a limit
+
+        conn.setReadTimeout("/transcription".equals(req.getServletPath()) ? 0 : FORWARD_TIMEOUT_MSECS * 10);
+
+        try {
+            if ("PUT".equals(req.getMethod())) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", req.getContentType() == null ? "application/json" : req.getContentType());
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(readContent(req).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            int status = conn.getResponseCode();
+            resp.setStatus(status);
+            if (conn.getContentType() != null) resp.setContentType(conn.getContentType());
+            if (conn.getHeaderField("Retry-After") != null) resp.setHeader("Retry-After", conn.getHeaderField("Retry-After"));
+
+            try (InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+                 OutputStream out = resp.getOutputStream()) {
+                if (in != null) {
+                    byte[] buf = new byte[4096];
+                    for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+                }
+            }
+
+        } catch (IOException ex) {
+            resp.sendError(HttpServletResponse.SC_BAD_GATEWAY, "Unable to forward request to node " + owner.node + ": " + ex.getMessage());
+
+        } finally {
+            conn.disconnect();
+        }
+
+        return true;
+    }
+
+
+    private GatewayCall findCall(String callid) {
+        GatewayCall gwcall = callmap.get("GUID:" + callid);
+        if (gwcall == null) gwcall = callmap.get("DEST:" + callid);
+        return gwcall;
+    }
+
+
+    private String readContent(HttpServletRequest req) throws IOException {
+
+        BufferedReader streamReader = new BufferedReader(new InputStreamReader(req.getInputStream()));
+        StringBuilder reqcontent = new StringBuilder();
+        String inputStr;
+
+        while ((inputStr = streamReader.readLine()) != null) {
+            reqcontent.append(inputStr);
+        }
+
+        return reqcontent.toString();
+    }
+
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+
+        String[] pathitems = req.getPathInfo() == null ? new String[0] : req.getPathInfo().split("/");
+
+        switch (req.getServletPath()) {
+
+            case "/gateways":
+                Object health;
+
+                if (pathitems.length < 2) {
+                    Map<String, Integer> sessions = countForking();
+                    JSONArray all = new JSONArray();
+                    gwmap.forEach((gwip, gw) -> all.put(gw.getHealth().put("forkingSessions", sessions.getOrDefault(gwip, 0)).put("media", mediaStats(gwip, gw))));
+                    health = all;
+
+                } else {
+                    GatewayXmf gw = gwmap.get(pathitems[1]);
+                    if (gw == null) {
+                        resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Gateway " + pathitems[1] + " does not exist");
+                        return;
+                    }
+                    health = gw.getHealth().put("forkingSessions", countForking().getOrDefault(pathitems[1], 0)).put("media", mediaStats(pathitems[1], gw));
+                }
+
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(health.toString());
+                }
+                break;
+
+            case "/pools":
+                JSONArray poolstatus = new JSONArray();
+                pools.values().forEach((pool) -> poolstatus.put(pool.getStatus()));
+
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(poolstatus.toString());
+                }
+                break;
+
+            case "/cluster":
+                if (cluster == null && leases == null) {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Cluster mode is not enabled");
+                    return;
+                }
+
+                JSONObject clusterstatus = cluster != null ? cluster.getStatus() : new JSONObject();
+                if (leases != null) clusterstatus.put("leases", leases.getStatus());
+
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(clusterstatus.toString());
+                }
+                break;
+
+            case "/media":
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(new JSONObject()
+                            .put("receiver", MediaReceiver.getShared().getStatus())
+                            .put("ports", MediaListener.getPorts().getStatus())
+                            .put("sharedPorts", MediaDemux.getShared() != null ? MediaDemux.getShared().getStatus() : null));
+                }
+                break;
+
+            case "/rules":
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(rules.getStatus().toString());
+                }
+                break;
+
+            case "/forking":
+                GatewayCall gwcall = pathitems.length < 2 ? null : findCall(pathitems[1]);
+                if (gwcall == null && pathitems.length >= 2 && forwardRequest(req, resp, pathitems[1])) {
+                    return;
+
+                } else if (gwcall == null) {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Call with ID " + (pathitems.length < 2 ? "" : pathitems[1]) + " does not exist");
+                    return;
+                }
+
+                resp.setContentType("application/json");
+                try (PrintWriter out = resp.getWriter()) {
+                    out.println(gwcall.getStatus().toString());
+                }
+                break;
+
+            default:
+                resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "GET not supported on " + req.getServletPath());
+                break;
+        }
+    }
+
+
+    private JSONObject doForking(GatewayCall gwcall, JSONObject forkreq) throws MediaForkingException {
 
         String action = forkreq.getString("action");
-        GatewayXmf gw = gwmap.get(gwcall.gwaddr);
+        ForkingCoalescer.Command cmd;
 
         switch(action.toUpperCase()) {
             case "START":
-                JSONObject cg = forkreq.getJSONObject("calling");
-                JSONObject cd = forkreq.getJSONObject("called");
-                
-                gw.startForking(gwcall.callid, cg.getString("address"), cg.getString("port"),
-                                               cd.getString("address"), cd.getString("port"));
+                if (forkreq.has("pool")) {
+                    cmd = ForkingCoalescer.Command.start(forkreq.getString("pool"));
+
+                } else {
+                    JSONObject cg = forkreq.getJSONObject("calling");
+                    JSONObject cd = forkreq.getJSONObject("called");
+                    cmd = ForkingCoalescer.Command.start(cg.getString("address"), cg.getString("port"), cd.getString("address"), cd.getString("port"));
+                }
+                cmd = cmd.limit(forkreq.optInt("maxDuration", 0));
                 break;
 
             case "STOP":
-                gw.stopForking(gwcall.callid);
+                cmd = ForkingCoalescer.Command.stop();
                 break;
 
             default:
                 throw new MediaForkingException("Invalid media forking action /" + action + "/");
         }
+
+        try {
+            return await(coalescer.submit(gwcall, cmd));
+        } catch (IOException ex) {
+            throw new MediaForkingException("Error processing media forking command", ex);
+        }
+    }
+
+
+    private <T> T await(CompletableFuture<T> result) throws IOException, MediaForkingException {
+        try {
+            return result.get();
+
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof MediaForkingException) throw (MediaForkingException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new MediaForkingException("Error processing call operation", cause);
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MediaForkingException("Interrupted waiting for call operation", ex);
+        }
+    }
+
+
+    private void applyForking(GatewayCall gwcall, ForkingCoalescer.Command cmd) throws MediaForkingException {
+
+        GatewayXmf gw = gwmap.get(gwcall.gwaddr);
+        if (gw == null) {
+            throw new MediaForkingException("Gateway for call ID " + gwcall.callid + " no longer exists");
+        }
+
+        if (cmd.pool != null) {
+            startPoolForking(gw, gwcall, cmd.pool);
+            gwcall.forkLimit = cmd.maxSecs;
+            reaper.arm(gwcall, cmd.maxSecs > 0 ? cmd.maxSecs : MAX_FORKING_SECS);
+
+        } else if (cmd.start) {
+            startForking(gw, gwcall, cmd.cgaddr, cmd.cgport, cmd.cdaddr, cmd.cdport);
+            gwcall.releasePoolSession();
+            gwcall.forkLimit = cmd.maxSecs;
+            reaper.arm(gwcall, cmd.maxSecs > 0 ? cmd.maxSecs : MAX_FORKING_SECS);
+
+        } else {
+            stopForking(gw, gwcall);
+            gwcall.releasePoolSession();
+            gwcall.forkLimit = 0;
+            reaper.disarm(gwcall);
+        }
+    }
+
+
+// Run for sessions past their maximum duration or whose call has gone.  If the stop
+// cannot be sent the session is marked stopped anyway, the call or gateway is gone
+
+    private void reapForking(GatewayCall gwcall) {
+        gwcall.mailbox.execute(() -> {
+            if (!gwcall.isForking()) return;
+
+            GatewayXmf gw = gwmap.get(gwcall.gwaddr);
+            try {
+                if (gw == null) {
+                    throw new MediaForkingException("Gateway no longer exists");
+                }
+                stopForking(gw, gwcall);
+                System.out.println("Stopped forking for call ID " + gwcall.callid);
+
+            } catch (MediaForkingException ex) {
+                System.out.println("Unable to stop forking for call ID " + gwcall.callid + ": " + ex.getMessage());
+                gwcall.setForkingState(GatewayCall.FORKING_STOPPED);
+            }
+
+            gwcall.releasePoolSession();
+        });
+    }
+
+
+// Rule actions skip the coalescing window, there is nothing to coalesce with yet and
+// every millisecond is audio lost from the start of the call
+
+    private void autoForking(GatewayCall gwcall, ForkingRules.Rule rule) {
+        gwcall.mailbox.execute(() -> {
+            try {
+                if (!rule.action.isNoop(gwcall)) {
+                    System.out.println("Forking rule " + rule.name + " matched call ID " + gwcall.callid);
+                    applyForking(gwcall, rule.action);
+                }
+            } catch (MediaForkingException ex) {
+                System.out.println("Forking rule " + rule.name + " failed for call ID " + gwcall.callid + ": " + ex.getMessage());
+            }
+        });
+    }
+
+
+// Ports on the chosen media server are held by the call until forking stops, changes
+// target or the call ends
+
+    private void startPoolForking(GatewayXmf gw, GatewayCall gwcall, String poolname) throws MediaForkingException {
+
+        MediaServer.Session session = gwcall.poolSession;
+
+        if (session == null || !poolname.equals(session.pool)) {
+            TargetPool pool = pools.get(poolname);
+            if (pool == null) {
+                throw new MediaForkingException("Target pool " + poolname + " does not exist");
+            }
+
+            MediaServer.Session alloc = pool.allocate(gwcall.guid);
+            if (alloc == null) {
+                throw new MediaForkingException("No media server capacity in target pool " + poolname);
+            }
+
+            try {
+                startForking(gw, gwcall, alloc.getAddress(), Integer.toString(alloc.getCallingPort()), alloc.getAddress(), Integer.toString(alloc.getCalledPort()));
+            } catch (MediaForkingException ex) {
+                alloc.release();
+                throw ex;
+            }
+
+            gwcall.releasePoolSession();
+            gwcall.poolSession = alloc;
+
+        } else {
+            startForking(gw, gwcall, session.getAddress(), Integer.toString(session.getCallingPort()), session.getAddress(), Integer.toString(session.getCalledPort()));
+        }
+    }
+
+
+// Forking commands are skipped when the call state shows they would make no change
+
+    private boolean startForking(GatewayXmf gw, GatewayCall gwcall, String cgaddr, String cgport, String cdaddr, String cdport) throws MediaForkingException {
+
+        if (gwcall.isForkingTo(cgaddr, cgport, cdaddr, cdport)) return false;
+
+        gw.startForking(gwcall.callid, cgaddr, cgport, cdaddr, cdport);
+        gwcall.setForkingTargets(cgaddr, cgport, cdaddr, cdport);
+        gwcall.setForkingState(GatewayCall.FORKING_STARTING);
+        return true;
+    }
+
+
+    private void stopForking(GatewayXmf gw, GatewayCall gwcall) throws MediaForkingException {
+        gw.stopForking(gwcall.callid);
+        gwcall.setForkingState(GatewayCall.FORKING_STOPPING);
     }
 
 
@@ -277,14 +1241,84 @@ public class Forking extends HttpServlet {
 
         MediaDirection mediadir = MediaDirection.valueOf(transreq.optString("party", "calling").toUpperCase());
 
-        gw.startForking(gwcall.callid, app_listen_addr, Integer.toString(xbr.getPort(CALLING)), app_listen_addr, Integer.toString(xbr.getPort(CALLED)));
+        xbr.expectMediaFrom(gwcall.gwaddr);
+        xbr.listen();
+        startForking(gw, gwcall, app_listen_addr, Integer.toString(xbr.getPort(CALLING)), app_listen_addr, Integer.toString(xbr.getPort(CALLED)));
         JSONObject results = xbr.transcribe(mediadir);
-        gw.stopForking(gwcall.callid);
+        stopForking(gw, gwcall);
         
         return results;
     }
 
 
+    private Map<String, Integer> countForking() {
+        Map<String, Integer> sessions = new HashMap<>();
+        callmap.forEach((k, c) -> {
+            if (k.startsWith("CALL:") && c.isForking()) sessions.merge(c.gwaddr, 1, Integer::sum);
+        });
+        return sessions;
+    }
+
+
+// Reception statistics of a gateway's transcription streams, those of calls that have
+// gone are kept in the gateway's running totals
+
+    private JSONObject mediaStats(String gwip, GatewayXmf gw) {
+        RtpStreamStats.Totals totals = new RtpStreamStats.Totals().add(gw.mediaEnded);
+        callmap.forEach((k, c) -> {
+            GoogleTranscriber xbr = c.transcriber;
+            if (k.startsWith("CALL:") && gwip.equals(c.gwaddr) && xbr != null) {
+                totals.add(xbr.getStats(CALLING)).add(xbr.getStats(CALLED));
+            }
+        });
+        return totals.getStatus();
+    }
+
+
+// A call the gateway has disconnected takes its forking with it, only a call dropped
+// while still up on the gateway needs forking stopped
+
+    private void removeCall(String gwip, String callid, boolean disconnected) {
+        GatewayCall gwcall = callmap.remove("CALL:" + gwip + ":" + callid);
+        if (gwcall != null) {
+            callmap.remove("GUID:" + gwcall.guid, gwcall);
+            callmap.remove("DEST:" + gwcall.called, gwcall);
+            if (cluster != null) cluster.callRemoved(gwcall);
+
+            if (gwcall.isForking() && !disconnected) {
+                reaper.stopNow(gwcall);
+            } else {
+                reaper.disarm(gwcall);
+                if (gwcall.isForking()) gwcall.setForkingState(GatewayCall.FORKING_STOPPED);
+            }
+
+// A transcription running in the mailbox is cancelled and its media closed straight
+// away, the rest of the teardown waits its turn behind it
+
+            GoogleTranscriber running = gwcall.transcriber;
+            if (running != null) {
+                try {
+                    running.close();
+                } catch (IOException ex) {
+                    System.out.println("Error closing media for call ID " + callid + ": " + ex.getMessage());
+                }
+            }
+
+            gwcall.mailbox.execute(() -> {
+                try {
+                    gwcall.close();
+                } catch (IOException ex) {
+                    System.out.println("Error closing call ID " + callid + ": " + ex.getMessage());
+                }
+
+                GatewayXmf gw = gwmap.get(gwip);
+                GoogleTranscriber xbr = gwcall.transcriber;
+                if (gw != null && xbr != null) gw.mediaEnded.add(xbr.getStats(CALLING)).add(xbr.getStats(CALLED));
+            });
+        }
+    }
+
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
@@ -296,7 +1330,12 @@ public class Forking extends HttpServlet {
                 
                 String gwip = req.getRemoteAddr();
                 GatewayXmf gw = gwmap.get(gwip);
-                gw.inactivityTicks = 0;
+                if (gw == null) {
+                    resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Gateway " + gwip + " is not configured");
+                    return;
+                }
+
+                gw.lastContact = System.currentTimeMillis();
                 SOAPMessage msg = gw.msgfct.createMessage(null, req.getInputStream());
                 System.out.println("\n--- Received message from " + gwip + " ---\n");
                 msg.writeTo(System.out);                
@@ -337,6 +1376,7 @@ public class Forking extends HttpServlet {
                     case "SolicitXmfProviderUnRegister":
                         xmfmsg.renameNode(msgelem, XMF_XMLNS, "ResponseXmfProviderUnRegister");
                         gw.active = false;
+                        scheduleKeepAlive(gw, 1000L * REGISTER_RETRY_SECS);
                         break;
 
                     case "NotifyXmfProviderStatus":
@@ -345,8 +1385,15 @@ public class Forking extends HttpServlet {
 
                     case "NotifyXmfCallData":
                         NotifyXmfCallData cd = jaxbUnmar.unmarshal(xmfmsg, NotifyXmfCallData.class).getValue();
+                        String forkstate = cd.getMediaEvent() == null || cd.getMediaEvent().getMediaForking() == null ? null
+                                         : cd.getMediaEvent().getMediaForking().getMediaForkingState();
                         System.out.println("Call ID: " + cd.getCallData().getCallID());
-                        System.out.println("Forking State: " + cd.getMediaEvent().getMediaForking().getMediaForkingState());
+                        System.out.println("Forking State: " + forkstate);
+
+                        GatewayCall forkcall = callmap.get("CALL:" + gwip + ":" + cd.getCallData().getCallID());
+                        if (forkcall != null && forkstate != null) {
+                            forkcall.setGatewayForkingState(forkstate);
+                        }
                         xmfmsg = null;
                         break;
 
@@ -368,10 +1415,20 @@ public class Forking extends HttpServlet {
                                 System.out.printf("Call %s, direction %s, from %s to %s, ID %s, leg %s, GUID %s%n", 
                                         callstate, direction, calling, called, callid, connid, guid);
 
-                                if ("OUTGOING".equals(direction)) {
+// A rule matching the incoming leg starts tracking the call early so forking is not
+// held up until the outgoing leg connects.  Rules are not checked again for the other
+// leg of a call one has already matched, whether or not it was sampled, keeping
+// rule counts per call
+
+                                GatewayCall known = callmap.get("CALL:" + gwip + ":" + callid);
+                                ForkingRules.Rule rule = gw.isDraining() || (known != null && known.ruleMatched) ? null
+                                                       : rules.match(gwip, direction, calling, called);
+
+                                if (("OUTGOING".equals(direction) || rule != null) && !gw.isDraining()) {
                                     GatewayCall gwcall = callmap.get("CALL:" + gwip + ":" + callid);
-                                    if (gwcall == null) {
-                                        gwcall = new GatewayCall(gwip, callid, guid);
+                                    boolean added = gwcall == null;
+                                    if (added) {
+                                        gwcall = new GatewayCall(gwip, callid, guid, commander);
                                         callmap.put("CALL:" + gwip + ":" + callid, gwcall);
                                         callmap.put("GUID:" + guid, gwcall);
                                         callmap.put("DEST:" + called, gwcall);
@@ -379,21 +1436,37 @@ public class Forking extends HttpServlet {
 
                                     gwcall.direction = direction;
                                     gwcall.state = callstate;
-                                    gwcall.outleg = connid;
+                                    if ("OUTGOING".equals(direction)) gwcall.outleg = connid;
                                     gwcall.calling = calling;
+
+// The outgoing leg can carry a different called number from the incoming one, the call
+// is then found by the new number here and across the cluster
+
+                                    String oldcalled = gwcall.called;
                                     gwcall.called = called;
+                                    if (added) {
+                                        if (cluster != null) cluster.callAdded(gwcall);
+
+                                    } else if (called != null && !called.equals(oldcalled)) {
+                                        if (oldcalled != null) callmap.remove("DEST:" + oldcalled, gwcall);
+                                        callmap.put("DEST:" + called, gwcall);
+                                        if (cluster != null) cluster.callUpdated(gwcall);
+                                    }
+
+                                    if (rule != null) {
+                                        gwcall.ruleMatched = true;
+                                        if (rule.sample(guid)) {
+                                            gwcall.forkRule = rule.name;
+                                            autoForking(gwcall, rule);
+                                        }
+                                    }
                                 }
 
                                 break;
 
                             case "DISCONNECTED":
                                 System.out.printf("Call %s, ID %s, leg %s%n", callstate, callid, connid);
-                                GatewayCall gwcall = callmap.remove("CALL:" + gwip + ":" + callid);
-                                if (gwcall != null) {
-                                    callmap.remove("GUID:" + gwcall.guid);
-                                    callmap.remove("DEST:" + gwcall.called);
-                                    gwcall.close();
-                                }
+                                removeCall(gwip, callid, true);
                                 break;                                                                
                                 
                             default:
@@ -443,30 +1516,4 @@ public class Forking extends HttpServlet {
         public String getServletInfo() {
         return "Provides simple web interface onto media forking and cloud speech services";
     }// </editor-fold>
-
-    class GatewayActivityTicker extends TimerTask {
-
-        @Override
-        public void run() {
-
-            gwmap.forEach((ip, gw) -> {
-                gw.inactivityTicks++;
-                
-                if ((!gw.active && gw.inactivityTicks == REGISTER_RETRY_TICKS) ||
-                    (gw.active && gw.inactivityTicks > gw.probeInterval / TICKER_INTERVAL_SECS + 1)) {
-
-                    System.out.println("Retrying gateway IP: " + ip + ", Active: " + gw.active + ", Inactivity Count: " + gw.inactivityTicks);
-                    gw.active = false;
-                    gw.inactivityTicks = 0;
-
-                    try {                
-                        gw.register();
-                    } catch (GatewayXmfException ex) {
-                        System.out.println("Error re-registering to gateway " + gw.iphost + ": " + ex.getMessage());
-                    }
-                }
-            });
-
-        }
-    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * MEDIA FORKING COMMAND COALESCER
+ *
+ * Scripted IVR flows often send START and STOP close together or repeat the same
+ * START.  Commands for a call are held for a short window and only the latest one is
+ * applied when it closes, then only if it changes the call's forking state, so a
+ * START cancelled by a STOP in the window or a repeated START to the same targets
+ * never reaches the gateway.  Every request in the window gets the same outcome.
+ *
+ * The window is timed on the wheel timer and the command is then applied through the
+ * call's mailbox, so it is ordered with any other operation on the same call.
+ * Whether a command would change anything is only decided there, after any earlier
+ * command has been applied, so a STOP arriving while a START is still in flight is
+ * never taken for a no-op.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+public class ForkingCoalescer {
+
+    static long WINDOW_MSECS = 250;
+
+    public interface Applier {
+        void apply(GatewayCall gwcall, Command cmd) throws MediaForkingException;
+    }
+
+    private final HashedWheelTimer timer;
+    private final Applier applier;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+
+
+    public ForkingCoalescer(HashedWheelTimer timer, Applier applier) {
+        this.timer = timer;
+        this.applier = applier;
+    }
+
+
+    public CompletableFuture<JSONObject> submit(GatewayCall gwcall, Command cmd) {
+
+        submitted.incrementAndGet();
+
+        synchronized (gwcall) {
+            Pending pending = gwcall.pendingFork;
+
+            if (pending == null) {
+                Pending window = gwcall.pendingFork = pending = new Pending();
+                timer.schedule(() -> gwcall.mailbox.execute(() -> flush(gwcall, window)), WINDOW_MSECS, TimeUnit.MILLISECONDS);
+            }
+
+            pending.command = cmd;
+            return pending.result;
+        }
+    }
+
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+
+    public long getApplied() {
+        return applied.get();
+    }
+
+
+    private void flush(GatewayCall gwcall, Pending pending) {
+
+        Command cmd;
+        synchronized (gwcall) {
+            if (gwcall.pendingFork == pending) gwcall.pendingFork = null;
+            cmd = pending.command;
+        }
+
+        try {
+            if (!cmd.isNoop(gwcall)) {
+                applied.incrementAndGet();
+                applier.apply(gwcall, cmd);
+            }
+            pending.result.complete(gwcall.getStatus());
+
+        } catch (MediaForkingException | RuntimeException ex) {
+            pending.result.completeExceptionally(ex);
+        }
+    }
+
+
+    public static class Command {
+        final boolean start;
+        final String pool;
+        final String cgaddr;
+        final String cgport;
+        final String cdaddr;
+        final String cdport;
+        final int maxSecs;
+
+        public static Command start(String cgaddr, String cgport, String cdaddr, String cdport) {
+            return new Command(true, null, cgaddr, cgport, cdaddr, cdport, 0);
+        }
+
+        public static Command start(String pool) {
+            return new Command(true, pool, null, null, null, null, 0);
+        }
+
+        public static Command stop() {
+            return new Command(false, null, null, null, null, null, 0);
+        }
+
+// Same command with a maximum forking duration, zero for no limit
+
+        public Command limit(int maxSecs) {
+            return new Command(start, pool, cgaddr, cgport, cdaddr, cdport, maxSecs);
+        }
+
+        private Command(boolean start, String pool, String cgaddr, String cgport, String cdaddr, String cdport, int maxSecs) {
+            this.start = start;
+            this.pool = pool;
+            this.cgaddr = cgaddr;
+            this.cgport = cgport;
+            this.cdaddr = cdaddr;
+            this.cdport = cdport;
+            this.maxSecs = maxSecs;
+        }
+
+// A START to the targets in use still has to be applied if it changes the session's
+// maximum duration, only the deadline is updated then
+
+        boolean isNoop(GatewayCall gwcall) {
+            if (!start) return !gwcall.isForking();
+            if (maxSecs != gwcall.forkLimit) return false;
+            if (pool != null) return gwcall.isForking() && gwcall.poolSession != null && pool.equals(gwcall.poolSession.pool);
+            return gwcall.isForkingTo(cgaddr, cgport, cdaddr, cdport);
+        }
+    }
+
+
+    static class Pending {
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        Command command;
+    }
+}
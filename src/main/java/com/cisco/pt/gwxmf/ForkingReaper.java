@@ -0,0 +1,135 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * FORKING SESSION REAPER
+ *
+ * Stops forking sessions that have run past their maximum duration or whose call
+ * is dropped while still up on the gateway, so a client that crashed without sending
+ * STOP does not leave a gateway forking media nobody is listening to.  A call the
+ * gateway has disconnected is not sent a stop, its forking has already ended.
+ *
+ * Each session's deadline is a wheel timeout that just queues the call when it
+ * fires.  A sweep every second hands the queued calls to the stopper, at most a batch
+ * per gateway per sweep, so a large number of sessions expiring together (such as
+ * from a campaign started at once) is spread out rather than hitting a gateway with
+ * a burst of stop requests.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ForkingReaper {
+
+    static long SWEEP_MSECS = 1000;
+    static int BATCH_SIZE = 50;
+
+    public interface Stopper {
+        void stop(GatewayCall gwcall);
+    }
+
+    private final HashedWheelTimer timer;
+    private final Stopper stopper;
+    private final ConcurrentLinkedQueue<GatewayCall> due = new ConcurrentLinkedQueue<>();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong stopped = new AtomicLong();
+
+
+    public ForkingReaper(HashedWheelTimer timer, Stopper stopper) {
+        this.timer = timer;
+        this.stopper = stopper;
+        timer.schedule(this::sweep, SWEEP_MSECS, TimeUnit.MILLISECONDS);
+    }
+
+
+// Replaces any deadline already set for the call, zero or less leaves it unlimited
+
+    public void arm(GatewayCall gwcall, int maxSecs) {
+
+        synchronized (gwcall) {
+            disarm(gwcall);
+
+            if (maxSecs > 0) {
+                gwcall.forkDeadline = System.currentTimeMillis() + 1000L * maxSecs;
+                gwcall.forkExpiry = timer.schedule(() -> {
+                    expired.incrementAndGet();
+                    due.add(gwcall);
+                }, maxSecs, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+
+    public void disarm(GatewayCall gwcall) {
+
+        synchronized (gwcall) {
+            if (gwcall.forkExpiry != null) {
+                gwcall.forkExpiry.cancel();
+                gwcall.forkExpiry = null;
+            }
+            gwcall.forkDeadline = 0;
+        }
+    }
+
+
+    public void stopNow(GatewayCall gwcall) {
+        disarm(gwcall);
+        due.add(gwcall);
+    }
+
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+
+    public long getStopped() {
+        return stopped.get();
+    }
+
+
+    private void sweep() {
+
+        try {
+            Map<String, Integer> issued = new HashMap<>();
+            List<GatewayCall> deferred = new ArrayList<>();
+
+            for (int n = due.size(); n > 0; n--) {
+                GatewayCall gwcall = due.poll();
+                if (gwcall == null) break;
+
+                if (issued.merge(gwcall.gwaddr, 1, Integer::sum) > BATCH_SIZE) {
+                    deferred.add(gwcall);
+                } else {
+                    stopped.incrementAndGet();
+                    stopper.stop(gwcall);
+                }
+            }
+
+            due.addAll(deferred);
+
+        } catch (RuntimeException ex) {
+            System.out.println("Forking reaper sweep failed: " + ex);
+
+        } finally {
+            timer.schedule(this::sweep, SWEEP_MSECS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
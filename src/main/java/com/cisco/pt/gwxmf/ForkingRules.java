@@ -0,0 +1,297 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * AUTOMATIC FORKING RULES
+ *
+ * Rules checked when a call leg connects so forking can be started straight away
+ * without waiting for the IVR script to ask for it.  A rule matches on calling and
+ * called number patterns, gateway address and leg direction, any of which may be
+ * left out to match everything, and forks to a target pool or explicit targets.
+ * The first matching rule in file order wins.
+ *
+ * A rule can fork just a sample of the calls it matches, given as a percentage.
+ * Whether a call is in the sample is decided from a hash of its GUID, so the answer
+ * is the same however many times the call is looked at, and calls left out of the
+ * sample are not forked by a later rule either.  A call is matched against the rules
+ * once, not again for its other leg, so matched and sampled counts are per call.
+ *
+ * Number patterns are digits, * # and + matched literally, X for any one digit and
+ * a trailing ! for any remaining digits.  Called patterns are compiled into a trie
+ * so the cost of a lookup depends on the length of the number, not the number of
+ * rules.  Rules are loaded from a JSON file of the form:
+ *
+ *   [
+ *     {"name": "sales", "called": "80055512XX", "direction": "OUTGOING",
+ *      "pool": "recorders"},
+ *     {"name": "qa", "called": "8005550!", "sample": 5, "maxDuration": 600,
+ *      "pool": "recorders"},
+ *     {"name": "vip", "calling": "4085550!", "gateway": "10.1.1.1",
+ *      "target": {"calling": {"address": "10.1.1.20", "port": "20000"},
+ *                 "called":  {"address": "10.1.1.20", "port": "20002"}}}
+ *   ]
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class ForkingRules {
+
+    static final int SAMPLE_SCALE = 10000;
+
+    private static final int ANY_DIGIT = 13;
+    private static final int ALPHABET = 14;
+
+    private final List<Rule> rules;
+    private final Node root = new Node();
+
+
+    public ForkingRules(List<Rule> rules) {
+        this.rules = rules;
+
+        for (Rule rule : rules) {
+            Node node = root;
+            String pattern = rule.called == null ? "!" : rule.called;
+
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '!') {
+                    node.rest.add(rule);
+                    node = null;
+                    break;
+                }
+
+                int idx = c == 'X' ? ANY_DIGIT : index(c);
+                if (node.next[idx] == null) node.next[idx] = new Node();
+                node = node.next[idx];
+            }
+
+            if (node != null) node.exact.add(rule);
+        }
+    }
+
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+
+// Returns the matching rule whether or not the call is in its sample, callers match
+// each call once and then ask the rule if it samples the call
+
+    public Rule match(String gwaddr, String direction, String calling, String called) {
+
+        if (rules.isEmpty()) return null;
+
+        Rule rule = walk(root, called == null ? "" : called, 0, null, gwaddr, direction, calling);
+        if (rule != null) rule.matched.incrementAndGet();
+        return rule;
+    }
+
+
+    public JSONArray getStatus() {
+        JSONArray list = new JSONArray();
+        rules.forEach((r) -> list.put(r.getStatus()));
+        return list;
+    }
+
+
+// Both the literal and X branches are followed for a digit, keeping the earliest
+// rule found so far so later rules are skipped without checking their other fields
+
+    private Rule walk(Node node, String called, int i, Rule best, String gwaddr, String direction, String calling) {
+
+        best = first(node.rest, best, gwaddr, direction, calling);
+
+        if (i == called.length()) {
+            return first(node.exact, best, gwaddr, direction, calling);
+        }
+
+        int idx = index(called.charAt(i));
+        if (idx < 0) return best;
+
+        if (node.next[idx] != null) {
+            best = walk(node.next[idx], called, i + 1, best, gwaddr, direction, calling);
+        }
+
+        if (idx <= 9 && node.next[ANY_DIGIT] != null) {
+            best = walk(node.next[ANY_DIGIT], called, i + 1, best, gwaddr, direction, calling);
+        }
+
+        return best;
+    }
+
+
+    private static Rule first(List<Rule> candidates, Rule best, String gwaddr, String direction, String calling) {
+
+        for (Rule rule : candidates) {
+            if (best != null && rule.order >= best.order) break;
+            if (rule.accepts(gwaddr, direction, calling)) return rule;
+        }
+
+        return best;
+    }
+
+
+    private static int index(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+
+        switch (c) {
+            case '*': return 10;
+            case '#': return 11;
+            case '+': return 12;
+            default:  return -1;
+        }
+    }
+
+
+    static boolean matches(String pattern, String number) {
+
+        if (pattern == null) return true;
+        if (number == null) return false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char p = pattern.charAt(i);
+            if (p == '!') return true;
+            if (i == number.length()) return false;
+
+            char c = number.charAt(i);
+            if (p == 'X' ? c < '0' || c > '9' : p != c) return false;
+        }
+
+        return pattern.length() == number.length();
+    }
+
+
+    static String compilePattern(String pattern) {
+
+        if (pattern == null || pattern.isEmpty()) return null;
+
+        String p = pattern.trim().toUpperCase();
+        for (int i = 0; i < p.length(); i++) {
+            char c = p.charAt(i);
+            if (c == '!' ? i != p.length() - 1 : c != 'X' && index(c) < 0) {
+                throw new IllegalArgumentException("Invalid number pattern " + pattern);
+            }
+        }
+
+        return p;
+    }
+
+
+    public static ForkingRules load(Path file) throws IOException {
+
+        JSONArray cfg = new JSONArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        List<Rule> rules = new ArrayList<>();
+
+        for (int i = 0; i < cfg.length(); i++) {
+            rules.add(Rule.fromJSON(cfg.getJSONObject(i), i));
+        }
+
+        return new ForkingRules(rules);
+    }
+
+
+    private static class Node {
+        final Node[] next = new Node[ALPHABET];
+        final List<Rule> exact = new ArrayList<>(1);
+        final List<Rule> rest = new ArrayList<>(1);
+    }
+
+
+    public static class Rule {
+        final String name;
+        final int order;
+        final String gateway;
+        final String direction;
+        final String calling;
+        final String called;
+        final int sample;
+        final ForkingCoalescer.Command action;
+        final AtomicLong matched = new AtomicLong();
+        final AtomicLong sampled = new AtomicLong();
+
+        Rule(String name, int order, String gateway, String direction, String calling, String called, double percent, ForkingCoalescer.Command action) {
+            if (percent < 0 || percent > 100) {
+                throw new IllegalArgumentException("Sample for rule " + name + " must be 0 to 100 percent");
+            }
+
+            this.name = name;
+            this.sample = (int) Math.round(percent * SAMPLE_SCALE / 100);
+            this.order = order;
+            this.gateway = gateway;
+            this.direction = direction;
+            this.calling = compilePattern(calling);
+            this.called = compilePattern(called);
+            this.action = action;
+        }
+
+        static Rule fromJSON(JSONObject cfg, int order) {
+
+            ForkingCoalescer.Command action;
+            if (cfg.has("pool")) {
+                action = ForkingCoalescer.Command.start(cfg.getString("pool"));
+            } else {
+                JSONObject target = cfg.getJSONObject("target");
+                JSONObject cg = target.getJSONObject("calling");
+                JSONObject cd = target.getJSONObject("called");
+                action = ForkingCoalescer.Command.start(cg.getString("address"), cg.get("port").toString(),
+                                                        cd.getString("address"), cd.get("port").toString());
+            }
+            action = action.limit(cfg.optInt("maxDuration", 0));
+
+            String direction = cfg.optString("direction", null);
+            return new Rule(cfg.optString("name", "rule" + (order + 1)), order, cfg.optString("gateway", null),
+                            direction == null ? null : direction.toUpperCase(),
+                            cfg.optString("calling", null), cfg.optString("called", null),
+                            cfg.optDouble("sample", 100), action);
+        }
+
+        boolean sample(String guid) {
+            if (!samples(guid)) return false;
+            sampled.incrementAndGet();
+            return true;
+        }
+
+        boolean samples(String guid) {
+            if (sample >= SAMPLE_SCALE) return true;
+            if (guid == null) return false;
+            return Integer.remainderUnsigned(TargetPool.hash(name + ":" + guid), SAMPLE_SCALE) < sample;
+        }
+
+        boolean accepts(String gwaddr, String direction, String calling) {
+            return (gateway == null || gateway.equals(gwaddr))
+                    && (this.direction == null || this.direction.equals(direction))
+                    && matches(this.calling, calling);
+        }
+
+        public JSONObject getStatus() {
+            JSONObject status = new JSONObject()
+                    .put("name", name)
+                    .put("sample", sample * 100.0 / SAMPLE_SCALE)
+                    .put("matched", matched.get())
+                    .put("sampled", sampled.get());
+            if (action.pool != null) status.put("pool", action.pool);
+            return status;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.cisco.pt.gwxmf;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import org.json.JSONObject;
 
 /*
  * ===================================================================================
@@ -18,6 +21,12 @@ import java.io.IOException;
  * media forking control operations.  Also holds call status for active calls and
  * can readily be extended for other use cases based on GSAPI.
  *
+ * Media forking state is tracked from gateway NotifyXmfCallData along with the fork
+ * targets last requested, so status reads and repeated START commands can be handled
+ * without going back to the gateway.  All operations on a call go through its
+ * mailbox so they run one at a time in order.  Local states STARTING and STOPPING
+ * cover the time between a command being accepted and the gateway notification.
+ *
  * -----------------------------------------------------------------------------------
  * 1.0,  Paul Tindall, Cisco,  4 Jun 2018 Initial version, for PoC, not hardened
  * -----------------------------------------------------------------------------------
@@ -32,24 +41,129 @@ public class GatewayCall {
     String direction;
     String calling;
     String called;
-    GoogleTranscriber transcriber;
+    volatile GoogleTranscriber transcriber;
+    final CallMailbox mailbox;
+
+    volatile String forkingState = FORKING_IDLE;
+    volatile long forkingUpdated;
+    volatile String nearAddr;
+    volatile String nearPort;
+    volatile String farAddr;
+    volatile String farPort;
+    ForkingCoalescer.Pending pendingFork;
+    volatile MediaServer.Session poolSession;
+    volatile String forkRule;
+    volatile boolean ruleMatched;
+    HashedWheelTimer.Timeout forkExpiry;
+    volatile long forkDeadline;
+    volatile int forkLimit;
+
+    static final String FORKING_IDLE = "IDLE";
+    static final String FORKING_STARTING = "STARTING";
+    static final String FORKING_STARTED = "STARTED";
+    static final String FORKING_STOPPING = "STOPPING";
+    static final String FORKING_STOPPED = "STOPPED";
 
     public GatewayCall(String callid) {
-        this.callid = callid;
+        this(null, callid, null);
     }
 
     public GatewayCall(String callid, String guid) {
-        this.callid = callid;
-        this.guid = guid;
+        this(null, callid, guid);
     }
 
     public GatewayCall(String gwaddr, String callid, String guid) {
+        this(gwaddr, callid, guid, ForkJoinPool.commonPool());
+    }
+
+    public GatewayCall(String gwaddr, String callid, String guid, Executor pool) {
         this.gwaddr = gwaddr;
         this.callid = callid;
         this.guid = guid;
+        mailbox = new CallMailbox(pool);
+    }
+
+    public void setForkingState(String state) {
+        forkingState = state;
+        forkingUpdated = System.currentTimeMillis();
     }
 
+
+    public void setGatewayForkingState(String gwstate) {
+
+// Normalise gateway reported state onto our own so variations in naming between IOS
+// releases still compare, anything unrecognised is kept as reported
+
+        String state = gwstate.toUpperCase();
+        if (state.contains("START")) {
+            state = FORKING_STARTED;
+        } else if (state.contains("STOP")) {
+            state = FORKING_STOPPED;
+        }
+        setForkingState(state);
+    }
+
+
+    public void releasePoolSession() {
+        MediaServer.Session session = poolSession;
+        poolSession = null;
+        if (session != null) session.release();
+    }
+
+
+    public void setForkingTargets(String cgaddr, String cgport, String cdaddr, String cdport) {
+        nearAddr = cgaddr;
+        nearPort = cgport;
+        farAddr = cdaddr;
+        farPort = cdport;
+    }
+
+
+    public boolean isForking() {
+        String state = forkingState;
+        return FORKING_STARTING.equals(state) || FORKING_STARTED.equals(state);
+    }
+
+
+    public boolean isForkingTo(String cgaddr, String cgport, String cdaddr, String cdport) {
+        return isForking() && cgaddr.equals(nearAddr) && cgport.equals(nearPort) && cdaddr.equals(farAddr) && cdport.equals(farPort);
+    }
+
+
+    public JSONObject getStatus() {
+        JSONObject status = new JSONObject()
+                .put("gateway", gwaddr)
+                .put("callID", callid)
+                .put("guid", guid)
+                .put("state", state)
+                .put("calling", calling)
+                .put("called", called)
+                .put("forking", forkingState)
+                .put("forkingUpdated", forkingUpdated);
+
+        if (forkRule != null) status.put("rule", forkRule);
+        if (forkDeadline > 0) status.put("forkingDeadline", forkDeadline);
+
+        MediaServer.Session session = poolSession;
+        if (session != null) {
+            status.put("pool", session.pool).put("server", session.getServer().name);
+        }
+
+        if (isForking()) {
+            status.put("targets", new JSONObject()
+                    .put("calling", new JSONObject().put("address", nearAddr).put("port", nearPort))
+                    .put("called", new JSONObject().put("address", farAddr).put("port", farPort)));
+        }
+
+        GoogleTranscriber xbr = transcriber;
+        if (xbr != null) status.put("media", xbr.getStatus());
+
+        return status;
+    }
+
+
     public void close() throws IOException {
+        releasePoolSession();
         if (transcriber != null) {
             transcriber.close();
         }
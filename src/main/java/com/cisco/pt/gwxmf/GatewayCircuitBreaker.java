@@ -0,0 +1,205 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * GATEWAY COMMAND CIRCUIT BREAKER
+ *
+ * Guards XMF commands to a single gateway.  Outcomes of the most recent commands are
+ * kept in a fixed size window and the breaker opens when too many of them failed or
+ * were slow, after which commands are refused immediately rather than each tying up
+ * a servlet thread until the SOAP timeout.  Once the open period has elapsed a small
+ * number of trial commands are let through (half open) and their outcome decides
+ * whether the breaker closes again or re-opens.
+ *
+ * Also keeps smoothed command latency and fault rate used for the gateway health
+ * score.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+public class GatewayCircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    static int WINDOW_SIZE = 20;
+    static int MIN_WINDOW_CALLS = 5;
+    static int FAILURE_RATE_PCT = 50;
+    static int SLOW_RATE_PCT = 50;
+    static long SLOW_CALL_MSECS = 3000;
+    static long OPEN_MSECS = 30000;
+    static int HALF_OPEN_TRIALS = 2;
+    static double SMOOTHING = 0.2;
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private int windowPos;
+    private int windowCalls;
+    private int failedCalls;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsPassed;
+    private long trips;
+
+    private double latency;
+    private double faultRate;
+    private boolean sampled;
+
+
+    public GatewayCircuitBreaker(String name) {
+        this.name = name;
+    }
+
+
+    public synchronized boolean tryAcquire() {
+
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < OPEN_MSECS) return false;
+            state = State.HALF_OPEN;
+            trialsStarted = trialsPassed = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= HALF_OPEN_TRIALS) return false;
+            trialsStarted++;
+        }
+        return true;
+    }
+
+
+    public synchronized void onSuccess(long msecs) {
+        record(msecs, false, false);
+    }
+
+
+    public synchronized void onFault(long msecs) {
+
+// Gateway answered but rejected the command, so it is alive as far as the breaker
+// is concerned although it still counts against the health score
+
+        record(msecs, false, true);
+    }
+
+
+    public synchronized void onFailure(long msecs) {
+        record(msecs, true, true);
+    }
+
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MSECS) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+
+    public synchronized double getFaultRate() {
+        return faultRate;
+    }
+
+
+    public long getRetryAfterSecs() {
+        long remaining;
+        synchronized (this) {
+            remaining = state == State.OPEN ? OPEN_MSECS - (System.currentTimeMillis() - openedAt) : 0;
+        }
+        return Math.max(1, (remaining + 999) / 1000);
+    }
+
+
+    private void record(long msecs, boolean failed, boolean fault) {
+
+        boolean slow = msecs >= SLOW_CALL_MSECS;
+
+        latency = sampled ? latency + SMOOTHING * (msecs - latency) : msecs;
+        sampled = true;
+        faultRate += SMOOTHING * ((fault ? 1 : 0) - faultRate);
+
+        byte old = window[windowPos];
+        if (windowCalls == WINDOW_SIZE) {
+            if ((old & FAILED) != 0) failedCalls--;
+            if ((old & SLOW) != 0) slowCalls--;
+        } else {
+            windowCalls++;
+        }
+
+        window[windowPos] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+        windowPos = (windowPos + 1) % WINDOW_SIZE;
+        if (failed) failedCalls++;
+        if (slow) slowCalls++;
+
+        switch (state) {
+            case HALF_OPEN:
+                if (failed || slow) {
+                    trip();
+                } else if (++trialsPassed >= HALF_OPEN_TRIALS) {
+                    reset();
+                }
+                break;
+
+            case CLOSED:
+                if (windowCalls >= MIN_WINDOW_CALLS &&
+                    (failedCalls * 100 >= FAILURE_RATE_PCT * windowCalls || slowCalls * 100 >= SLOW_RATE_PCT * windowCalls)) {
+                    trip();
+                }
+                break;
+
+            default:
+
+// Late result from a command that started before the breaker opened, or a probe that
+// bypassed it, a success here means the gateway is back so move to half open
+
+                if (!failed && !slow) {
+                    state = State.HALF_OPEN;
+                    trialsStarted = trialsPassed = 1;
+                    if (trialsPassed >= HALF_OPEN_TRIALS) reset();
+                }
+                break;
+        }
+    }
+
+
+    private void trip() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        trips++;
+        System.out.printf("Circuit breaker opened for %s, %d of %d recent commands failed, %d slow%n", name, failedCalls, windowCalls, slowCalls);
+    }
+
+
+    private void reset() {
+        state = State.CLOSED;
+        windowPos = windowCalls = failedCalls = slowCalls = 0;
+        System.out.println("Circuit breaker closed for " + name);
+    }
+}
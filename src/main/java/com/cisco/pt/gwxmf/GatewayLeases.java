@@ -0,0 +1,313 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * GATEWAY OWNERSHIP LEASES
+ *
+ * Shares the configured gateways out between controller nodes so each gateway is
+ * registered by exactly one node and notification load is split between them.
+ * Ownership is a lease file per gateway in a directory every node can reach, read
+ * and written under an exclusive file lock, naming the owner and when the lease
+ * expires.  Owners renew their leases every round, a lease not renewed in time is
+ * free to be taken by any node.
+ *
+ * Each node also keeps a heartbeat file in the directory, the number of live nodes
+ * sets the share of gateways each node should hold.  A node takes free leases until
+ * it has its share and gives up any over its share, so gateways move to a node that
+ * joins and are picked up again when one leaves.
+ *
+ * A lease that cannot be renewed, because the directory cannot be read or written,
+ * is given up by its owner while it is still valid, before another node is able to
+ * claim it, so a gateway is never held by two nodes at once.
+ *
+ * Expiry times are compared between nodes so their clocks must be kept in step.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class GatewayLeases {
+
+    static int LEASE_SECS = 30;
+
+    private final Path dir;
+    private final String nodeid;
+    private final String nodefile;
+    private final BiConsumer<String, String> acquired;
+    private final Consumer<String> lost;
+    private final Map<String, String> wanted = new ConcurrentHashMap<>();
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> renewed = new ConcurrentHashMap<>();
+    private volatile int liveNodes = 1;
+    private boolean closed;
+
+
+    public GatewayLeases(Path dir, String nodeid, BiConsumer<String, String> acquired, Consumer<String> lost) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.nodeid = nodeid;
+        this.nodefile = fileName(nodeid) + ".node";
+        this.acquired = acquired;
+        this.lost = lost;
+    }
+
+
+// A gateway is only registered once its lease is held, the acquired callback is then
+// run from the next renewal round
+
+    public void want(String gwhost, String gwaddr) {
+        wanted.put(gwhost, gwaddr == null ? "" : gwaddr);
+    }
+
+
+    public void unwant(String gwhost) {
+        wanted.remove(gwhost);
+    }
+
+
+    public Set<String> getWanted() {
+        return Collections.unmodifiableSet(wanted.keySet());
+    }
+
+
+    public boolean holds(String gwhost) {
+        return held.contains(gwhost);
+    }
+
+
+    public static long renewMillis() {
+        return 1000L * LEASE_SECS / 3;
+    }
+
+
+// Run periodically, never concurrently with itself or with close
+
+    public synchronized void renew() {
+
+        if (closed) return;
+
+        long now = System.currentTimeMillis();
+
+        try {
+            heartbeat(now);
+            liveNodes = countLiveNodes(now);
+        } catch (IOException ex) {
+            System.out.println("Unable to update node heartbeat in " + dir + ": " + ex.getMessage());
+        }
+
+        int share = (wanted.size() + liveNodes - 1) / liveNodes;
+
+        for (String gwhost : held) {
+            if (!wanted.containsKey(gwhost)) {
+                release(gwhost);
+            }
+        }
+
+// Start from a different point on each node so nodes starting together do not all
+// contend for the same leases first
+
+        List<String> hosts = new ArrayList<>(wanted.keySet());
+        Collections.sort(hosts);
+        if (!hosts.isEmpty()) Collections.rotate(hosts, Math.floorMod(nodeid.hashCode(), hosts.size()));
+
+        for (String gwhost : hosts) {
+            String gwaddr = wanted.get(gwhost);
+            if (gwaddr == null) continue;
+
+            boolean mine = held.contains(gwhost);
+
+            if (mine && held.size() > share) {
+                System.out.println("Giving up lease on gateway " + gwhost + ", holding " + held.size() + " of " + wanted.size() + " with " + liveNodes + " nodes");
+                release(gwhost);
+                continue;
+            }
+
+            if (!mine && held.size() >= share) continue;
+
+            try {
+                boolean owner = claim(gwhost, now);
+
+                if (owner) renewed.put(gwhost, now);
+
+                if (owner && !mine) {
+                    held.add(gwhost);
+                    System.out.println("Acquired lease on gateway " + gwhost);
+                    acquired.accept(gwhost, gwaddr.isEmpty() ? null : gwaddr);
+
+                } else if (!owner && mine) {
+                    held.remove(gwhost);
+                    renewed.remove(gwhost);
+                    System.out.println("Lost lease on gateway " + gwhost);
+                    lost.accept(gwhost);
+                }
+
+            } catch (IOException | JSONException ex) {
+                System.out.println("Unable to renew lease on gateway " + gwhost + ": " + ex.getMessage());
+            }
+        }
+
+// A lease that would run out before the next round is given up now while this node
+// still holds it, rather than kept on after another node may have claimed it
+
+        long limit = now + renewMillis() - 1000L * LEASE_SECS;
+
+        for (Iterator<String> it = held.iterator(); it.hasNext(); ) {
+            String gwhost = it.next();
+            if (renewed.getOrDefault(gwhost, 0L) <= limit) {
+                it.remove();
+                renewed.remove(gwhost);
+                System.out.println("Lease on gateway " + gwhost + " could not be renewed in time, giving it up");
+                lost.accept(gwhost);
+            }
+        }
+    }
+
+
+// Leases are given up when the node stops so the others can take over straight away
+// rather than waiting for them to expire.  Once closed a late renewal round does
+// nothing, so no lease is taken again after the node has given them up.
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        new ArrayList<>(held).forEach(this::release);
+        try {
+            Files.deleteIfExists(dir.resolve(nodefile));
+        } catch (IOException ex) { }
+    }
+
+
+    public JSONObject getStatus() {
+        JSONArray list = new JSONArray();
+        held.stream().sorted().forEach(list::put);
+        return new JSONObject()
+                .put("node", nodeid)
+                .put("directory", dir.toString())
+                .put("liveNodes", liveNodes)
+                .put("gateways", wanted.size())
+                .put("held", list);
+    }
+
+
+// The file lock is released when the channel is closed
+
+    private boolean claim(String gwhost, long now) throws IOException {
+
+        try (FileChannel ch = FileChannel.open(dir.resolve(fileName(gwhost) + ".lease"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ch.lock();
+
+            JSONObject lease = read(ch);
+            String owner = lease == null ? null : lease.optString("node", null);
+            long expires = lease == null ? 0 : lease.optLong("expires", 0);
+
+            if (owner != null && !owner.equals(nodeid) && expires > now) {
+                return false;
+            }
+
+            write(ch, new JSONObject().put("node", nodeid).put("expires", now + 1000L * LEASE_SECS));
+            return true;
+        }
+    }
+
+
+    private void release(String gwhost) {
+
+        if (!held.remove(gwhost)) return;
+        renewed.remove(gwhost);
+
+        try (FileChannel ch = FileChannel.open(dir.resolve(fileName(gwhost) + ".lease"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ch.lock();
+
+            JSONObject lease = read(ch);
+            if (lease != null && nodeid.equals(lease.optString("node", null))) {
+                write(ch, new JSONObject().put("node", nodeid).put("expires", 0));
+            }
+
+        } catch (IOException | JSONException ex) {
+            System.out.println("Unable to release lease on gateway " + gwhost + ": " + ex.getMessage());
+        }
+
+        lost.accept(gwhost);
+    }
+
+
+    private static JSONObject read(FileChannel ch) throws IOException {
+
+        if (ch.size() == 0) return null;
+
+        ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+        while (buf.hasRemaining() && ch.read(buf, buf.position()) > 0) { }
+
+        String content = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).trim();
+        return content.isEmpty() ? null : new JSONObject(content);
+    }
+
+
+    private static void write(FileChannel ch, JSONObject lease) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap((lease.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        ch.truncate(0);
+        while (buf.hasRemaining()) ch.write(buf, buf.position());
+        ch.force(false);
+    }
+
+
+    private void heartbeat(long now) throws IOException {
+        Path tmp = dir.resolve(nodefile + ".tmp");
+        Files.write(tmp, Long.toString(now).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, dir.resolve(nodefile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    private int countLiveNodes(long now) throws IOException {
+
+        int live = 0;
+
+        try (DirectoryStream<Path> nodes = Files.newDirectoryStream(dir, "*.node")) {
+            for (Path node : nodes) {
+                try {
+                    long beat = Long.parseLong(new String(Files.readAllBytes(node), StandardCharsets.UTF_8).trim());
+                    if (now - beat < 1000L * LEASE_SECS) live++;
+                } catch (IOException | NumberFormatException ex) { }
+            }
+        }
+
+        return Math.max(1, live);
+    }
+
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
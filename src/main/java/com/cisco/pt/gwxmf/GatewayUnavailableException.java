@@ -0,0 +1,34 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * GATEWAY UNAVAILABLE EXCEPTION
+ * 
+ * Raised without contacting the gateway when its circuit breaker is open.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+public class GatewayUnavailableException extends GatewayXmfException {
+
+    private final long retryAfterSecs;
+
+    public GatewayUnavailableException (String message, long retryAfterSecs) {
+        super(message);
+        this.retryAfterSecs = retryAfterSecs;
+    }
+
+    public long getRetryAfterSecs() {
+        return retryAfterSecs;
+    }
+}
@@ -14,6 +14,11 @@ package com.cisco.pt.gwxmf;
  * 
  * Handles XMF provider commands to the gateway.
  *
+ * Commands pass through a circuit breaker so a slow or unresponsive gateway fails
+ * fast.  Registration is always attempted, acting as the probe that lets a tripped
+ * breaker recover.  Health score (0-100) combines how recently the gateway was heard
+ * from relative to its probe interval with command latency and fault rate.
+ *
  * -----------------------------------------------------------------------------------
  * 1.0,  Paul Tindall, Cisco,  6 Jul 2018 Initial version for PoC
  * -----------------------------------------------------------------------------------
@@ -28,8 +33,11 @@ import com.cisco.schema.cisco_xmf.v1_0.NearEndAddr;
 import com.cisco.schema.cisco_xmf.v1_0.ProviderData;
 import com.cisco.schema.cisco_xmf.v1_0.RequestXmfCallMediaForking;
 import com.cisco.schema.cisco_xmf.v1_0.RequestXmfRegister;
+import com.cisco.schema.cisco_xmf.v1_0.RequestXmfUnRegister;
 import com.cisco.schema.cisco_xmf.v1_0.ResponseXmfRegister;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -43,6 +51,7 @@ import javax.xml.soap.SOAPEnvelope;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPFault;
 import javax.xml.soap.SOAPMessage;
+import org.json.JSONObject;
 
 
 public class GatewayXmf {
@@ -57,12 +66,18 @@ public class GatewayXmf {
     String appurl;
     String xmfurl;
     String regid;
-    int transaction;
-    int inactivityTicks;
-    int probeInterval = DEFAULT_PROBE_INTERVAL_SECS;
-    boolean active;
+    final AtomicInteger transaction = new AtomicInteger();
+    final AtomicBoolean registering = new AtomicBoolean();
+    volatile int probeInterval = DEFAULT_PROBE_INTERVAL_SECS;
+    volatile boolean active;
+    volatile long lastContact;
+    volatile long lastRegister;
+    volatile long drainStarted;
+    final RtpStreamStats.Totals mediaEnded = new RtpStreamStats.Totals();
+    HashedWheelTimer.Timeout keepalive;
 
     MessageFactory msgfct;
+    GatewayCircuitBreaker breaker;
 
 
     public GatewayXmf(String iphost, String appurl) throws SOAPException {
@@ -70,12 +85,14 @@ public class GatewayXmf {
         this.appurl = appurl;
         
         msgfct = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+        breaker = new GatewayCircuitBreaker(iphost);
     }
     
 
     public void register() throws GatewayXmfException {
 
         xmfurl = String.format(GW_XMF_URL, iphost);
+        lastRegister = System.currentTimeMillis();
 
         try {
             RequestXmfRegister reg = new RequestXmfRegister();
@@ -83,7 +100,7 @@ public class GatewayXmf {
             ProviderData prvdata = new ProviderData();
             ApplicationData appdata = new ApplicationData();
 
-            msghdr.setTransactionID(String.valueOf(++transaction));
+            msghdr.setTransactionID(String.valueOf(transaction.incrementAndGet()));
             prvdata.setUrl(xmfurl);
             appdata.setName(APP_NAME);
             appdata.setUrl(appurl);
@@ -94,13 +111,14 @@ public class GatewayXmf {
             reg.setProviderData(prvdata);
             reg.setMsgHeader(msghdr);
 
-            SOAPMessage rsp = sendRequest(reg);
+            SOAPMessage rsp = sendRequest(reg, true);
 
             JAXBContext jaxbCtx = JAXBContext.newInstance("com.cisco.schema.cisco_xmf.v1_0");
             Unmarshaller jaxbUnmar = jaxbCtx.createUnmarshaller();
             ResponseXmfRegister rspreg = jaxbUnmar.unmarshal(rsp.getSOAPBody().extractContentAsDocument(), ResponseXmfRegister.class).getValue();
             regid = rspreg.getMsgHeader().getRegistrationID();
             System.out.printf("%nGateway connection successful to %s, registration ID = %s%n%n", iphost, regid);
+            lastContact = System.currentTimeMillis();
             active = true;
 
         } catch (JAXBException | SOAPException | UnsupportedOperationException ex ) {
@@ -109,6 +127,29 @@ public class GatewayXmf {
     }
 
 
+    public void unregister() throws GatewayXmfException {
+
+        MsgHeader msghdr = new MsgHeader();
+        msghdr.setRegistrationID(regid);
+        msghdr.setTransactionID(String.valueOf(transaction.incrementAndGet()));
+
+        RequestXmfUnRegister unreg = new RequestXmfUnRegister();
+        unreg.setMsgHeader(msghdr);
+
+        try {
+            sendRequest(unreg, true);
+            System.out.printf("%nGateway %s unregistered, registration ID = %s%n%n", iphost, regid);
+        } finally {
+            active = false;
+        }
+    }
+
+
+    public boolean isDraining() {
+        return drainStarted != 0;
+    }
+
+
     public void startForking(String gwcallid, String cgaddr, String cgport, String cdaddr, String cdport) throws MediaForkingException {
         
         try {
@@ -131,13 +172,13 @@ public class GatewayXmf {
             
             MsgHeader msghdr = new MsgHeader();
             msghdr.setRegistrationID(regid);
-            msghdr.setTransactionID(String.valueOf(++transaction));
+            msghdr.setTransactionID(String.valueOf(transaction.incrementAndGet()));
             
             fork.setCallID(gwcallid);
             fork.setMsgHeader(msghdr);
             fork.setAction(act);
                     
-            sendRequest(fork);
+            sendRequest(fork, false);
 
         } catch (GatewayXmfException ex) {
             throw new MediaForkingException("Error starting media forking", ex);
@@ -155,13 +196,13 @@ public class GatewayXmf {
             
             MsgHeader msghdr = new MsgHeader();
             msghdr.setRegistrationID(regid);
-            msghdr.setTransactionID(String.valueOf(++transaction));
+            msghdr.setTransactionID(String.valueOf(transaction.incrementAndGet()));
             
             fork.setCallID(gwcallid);
             fork.setMsgHeader(msghdr);
             fork.setAction(act);
                     
-            sendRequest(fork);
+            sendRequest(fork, false);
 
         } catch (GatewayXmfException ex) {
             throw new MediaForkingException("Error stopping media forking", ex);
@@ -169,10 +210,43 @@ public class GatewayXmf {
     }
 
 
-    SOAPMessage sendRequest(Object jaxbe) throws GatewayXmfException {
+    public int getHealthScore() {
+
+        long age = System.currentTimeMillis() - lastContact;
+        long interval = 1000L * probeInterval;
+        double freshness = !active ? 0 : age <= interval ? 1 : Math.max(0, 2 - (double) age / interval);
+        double speed = 1 / (1 + breaker.getLatency() / GatewayCircuitBreaker.SLOW_CALL_MSECS);
+        double faults = 1 - breaker.getFaultRate();
+
+        return (int) Math.round(40 * freshness + 30 * speed + 30 * faults);
+    }
+
+
+    public JSONObject getHealth() {
+        return new JSONObject()
+                .put("gateway", iphost)
+                .put("active", active)
+                .put("draining", isDraining())
+                .put("registrationID", regid)
+                .put("probeInterval", probeInterval)
+                .put("lastContact", lastContact)
+                .put("breaker", breaker.getState())
+                .put("breakerTrips", breaker.getTrips())
+                .put("latency", Math.round(breaker.getLatency()))
+                .put("faultRate", Math.round(breaker.getFaultRate() * 100) / 100.0)
+                .put("score", getHealthScore());
+    }
+
+
+    SOAPMessage sendRequest(Object jaxbe, boolean probe) throws GatewayXmfException {
+
+        if (!probe && !breaker.tryAcquire()) {
+            throw new GatewayUnavailableException("Gateway " + iphost + " unavailable, circuit breaker open", breaker.getRetryAfterSecs());
+        }
 
         SOAPConnection con = null;
         SOAPMessage rsp = null;
+        long started = System.currentTimeMillis();
 
         try {
             JAXBContext jaxbCtx = JAXBContext.newInstance("com.cisco.schema.cisco_xmf.v1_0");
@@ -197,12 +271,24 @@ public class GatewayXmf {
             
             SOAPFault fault = rsp.getSOAPBody().getFault();
             if (fault != null) {
+                breaker.onFault(System.currentTimeMillis() - started);
                 throw new GatewayXmfException(fault);
             }
 
+            breaker.onSuccess(System.currentTimeMillis() - started);
+
         } catch (IOException | JAXBException | SOAPException ex) {
+            breaker.onFailure(System.currentTimeMillis() - started);
             if (con != null) {try { con.close(); } catch (SOAPException e) { } }
             throw new GatewayXmfException("XMF request error", ex);
+
+// Anything unexpected still has to be reported or a half open trial is never given
+// back and the breaker refuses every command until it next opens
+
+        } catch (RuntimeException ex) {
+            breaker.onFailure(System.currentTimeMillis() - started);
+            if (con != null) {try { con.close(); } catch (SOAPException e) { } }
+            throw ex;
         }
         
         return rsp;
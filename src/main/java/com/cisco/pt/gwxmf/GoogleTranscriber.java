@@ -42,6 +42,8 @@ public class GoogleTranscriber {
     private MediaListener cdrtp;
     private RecognitionConfig reccfg;
     private StreamingRecognitionConfig strcfg;
+    private volatile BidiStream<StreamingRecognizeRequest, StreamingRecognizeResponse> active;
+    private volatile boolean closed;
 
 
     public GoogleTranscriber(String addr) throws IOException, MediaForkingException {
@@ -89,35 +91,78 @@ public class GoogleTranscriber {
     }
 
 
+    public RtpStreamStats getStats(MediaDirection medir) {
+        return (CALLING.equals(medir) ? cgrtp : cdrtp).getStats();
+    }
+
+
+    public JSONObject getStatus() {
+        return new JSONObject()
+                .put("calling", cgrtp.getStatus())
+                .put("called", cdrtp.getStatus());
+    }
+
+
+// Safe from any thread, a transcription in progress is cancelled and returns with
+// what it has
+
     public void close() throws IOException {
+        closed = true;
+        BidiStream<StreamingRecognizeRequest, StreamingRecognizeResponse> stream = active;
+        if (stream != null) stream.cancel();
         cgrtp.close();
         cdrtp.close();
     }
 
 
-    public JSONObject transcribeCaller() throws IOException {
+// Gateway the forked media will come from, set before listening
+
+    public void expectMediaFrom(String gwaddr) throws IOException {
+        cgrtp.expectFrom(gwaddr);
+        cdrtp.expectFrom(gwaddr);
+    }
+
+
+// Both streams are listened for before forking starts, on shared ports this is what
+// fixes the ports to fork to
+
+    public void listen() throws IOException, MediaForkingException {
+        if (closed) throw new MediaForkingException("Transcription cancelled, call has ended");
+        cgrtp.start();
+        try {
+            cdrtp.start();
+        } catch (IOException | MediaForkingException | RuntimeException ex) {
+            cgrtp.stop();
+            throw ex;
+        }
+    }
+
+
+    public JSONObject transcribeCaller() throws IOException, MediaForkingException {
         return transcribe(CALLING);
     }
 
 
-    public JSONObject transcribeCalled() throws IOException {
+    public JSONObject transcribeCalled() throws IOException, MediaForkingException {
         return transcribe(CALLED);
     }
 
 
-    public JSONObject transcribe(MediaDirection medir) throws IOException {
+    public JSONObject transcribe(MediaDirection medir) throws IOException, MediaForkingException {
 
         MediaListener rtp = CALLING.equals(medir) ? cgrtp : cdrtp;
         JSONObject outcome = new JSONObject();
         
         try (SpeechClient speech = SpeechClient.create()) {
             BidiStream<StreamingRecognizeRequest, StreamingRecognizeResponse> stream = speech.streamingRecognizeCallable().call();
+            active = stream;
+            if (closed) throw new MediaForkingException("Transcription cancelled, call has ended");
             StreamingRecognizeRequest cfgreq = StreamingRecognizeRequest.newBuilder().setStreamingConfig(strcfg).build();
             stream.send(cfgreq);
 
             rtp.start();
-            rtp.processMedia((raw) -> {
-                stream.send(StreamingRecognizeRequest.newBuilder().setAudioContent(ByteString.copyFrom(raw)).build());
+            rtp.processAudio((audio) -> {
+                stream.send(StreamingRecognizeRequest.newBuilder().setAudioContent(ByteString.copyFrom(audio)).build());
             });
 
             for (StreamingRecognizeResponse rsp : stream) {
@@ -158,11 +203,17 @@ public class GoogleTranscriber {
 
             }
 
+        } catch (RuntimeException ex) {
+            if (!closed) throw ex;
+            outcome.put("error", "Transcription cancelled, call has ended");
+
         } finally {
+            active = null;
             rtp.discardMedia();
-            rtp.stop();
+            cgrtp.stop();
+            cdrtp.stop();
         }
 
-        return outcome;
+        return outcome.put("media", rtp.getStatus());
     }
 }
@@ -0,0 +1,198 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * HASHED WHEEL TIMER
+ *
+ * Low overhead scheduler for large numbers of coarse grained timeouts such as gateway
+ * keep-alive deadlines.  Timeouts are hashed into a ring of buckets by expiry tick,
+ * scheduling and cancelling are O(1) and one worker thread advances the wheel each
+ * tick expiring only the timeouts in the current bucket.
+ *
+ * Tasks run on the worker thread so must be short, anything that may block (such as
+ * a gateway registration) should be handed off to an executor by the task.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimer {
+
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+    private long tick;
+
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        mask = size - 1;
+        tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        startTime = System.nanoTime();
+
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+        added.add(timeout);
+        return timeout;
+    }
+
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+
+    private void run() {
+
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+            }
+
+            for (Timeout t; (t = cancelled.poll()) != null; ) {
+                if (t.bucket != null) t.bucket.remove(t);
+            }
+
+            transferAdded();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+
+    private void transferAdded() {
+
+// Bound the work per tick so a burst of scheduling cannot stall expiry
+
+        for (int i = 0; i < 100000; i++) {
+            Timeout t = added.poll();
+            if (t == null) break;
+            if (t.state.get() == ST_CANCELLED) continue;
+
+            long ticks = t.deadline / tickNanos;
+            t.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(t);
+        }
+    }
+
+
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+        private long rounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_PENDING, ST_CANCELLED)) return false;
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (state.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable ex) {
+                    System.out.println("Timer task failed: " + ex);
+                }
+            }
+        }
+    }
+
+
+// Bucket lists are only ever touched by the worker thread so need no locking
+
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) t.prev.next = t.next; else head = t.next;
+            if (t.next != null) t.next.prev = t.prev; else tail = t.prev;
+            t.next = t.prev = null;
+            t.bucket = null;
+        }
+
+        void expire(long deadline) {
+            for (Timeout t = head; t != null; ) {
+                Timeout next = t.next;
+                if (t.rounds <= 0 && t.deadline <= deadline) {
+                    remove(t);
+                    t.expire();
+                } else if (t.state.get() == ST_CANCELLED) {
+                    remove(t);
+                } else {
+                    t.rounds--;
+                }
+                t = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * ADAPTIVE JITTER BUFFER
+ *
+ * Puts one RTP stream's packets back in sequence order before the audio is passed on,
+ * holding each packet until its playout time.  Playout time is the packet's RTP
+ * timestamp mapped onto the local clock using the quickest transit seen, plus a
+ * buffer depth that follows the RFC 3550 interarrival jitter estimate between a
+ * floor and a ceiling.  A packet arriving after its slot has been played is dropped.
+ *
+ * A missing packet is given up on once a later packet is due.  The first frame of a
+ * gap repeats the previous frame, anything longer is filled with silence, so the
+ * audio keeps its timing.
+ *
+ * Playout is driven by packet arrivals rather than a timer, the consumer here is a
+ * speech recogniser not a loudspeaker, so frames are released in bursts no larger
+ * than the gap between arrivals.  Call flush() at the end of the stream, or
+ * discard() if the rest of it is not wanted.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+public class JitterBuffer {
+
+    static int SLOTS = 64;
+    static int MIN_DEPTH_MSECS = 20;
+    static int MAX_DEPTH_MSECS = 200;
+    static int JITTER_MULTIPLE = 3;
+    static int CLOCK_RATE = 8000;
+
+    private static final int PT_PCMA = 8;
+    private static final byte PCMU_SILENCE = (byte) 0xff;
+    private static final byte PCMA_SILENCE = (byte) 0xd5;
+    private static final long DRIFT_MICROS_PER_PACKET = 50;
+
+    private final Consumer<ByteBuffer> output;
+    private final RtpPacket[] slots = new RtpPacket[SLOTS];
+    private final long[] slotTime = new long[SLOTS];
+    private final long[] slotArrival = new long[SLOTS];
+    private final byte[] last = new byte[MediaReceiver.MAX_PACKET_LEN];
+    private final ByteBuffer lastView = ByteBuffer.wrap(last);
+
+    private int nextSeq = -1;
+    private long ssrc = -1;
+    private long lastRawTs;
+    private long extTs;
+    private long baseTransit = Long.MAX_VALUE;
+    private long lastTransit;
+    private long jitter;
+    private long depth = 1000L * MIN_DEPTH_MSECS;
+    private int lastLen;
+    private int lastPt;
+    private int lossRun;
+    private long streamPackets;
+
+    private long received;
+    private long played;
+    private long late;
+    private long duplicates;
+    private long concealed;
+    private long delayTotal;
+
+
+    public JitterBuffer(Consumer<ByteBuffer> output) {
+        this.output = output;
+    }
+
+
+// Called on the receive thread, the packet is retained until it is played
+
+    public synchronized void push(RtpPacket pkt) {
+
+        long now = System.nanoTime() / 1000;
+        int seq = pkt.getSequence();
+
+// A new source or a jump further than the buffer holds starts the stream again
+
+        if (pkt.getSsrc() != ssrc || (nextSeq >= 0 && Math.abs((short) (seq - nextSeq)) >= SLOTS)) {
+            flush();
+            ssrc = pkt.getSsrc();
+        }
+
+        long media = mediaTime(pkt.getTimestamp());
+        received++;
+        estimate(now - media);
+
+        if (nextSeq < 0) nextSeq = seq;
+
+        int ahead = (short) (seq - nextSeq);
+        if (ahead < 0) {
+            late++;
+            return;
+        }
+
+        int slot = seq & (SLOTS - 1);
+        if (slots[slot] != null) {
+            duplicates++;
+            return;
+        }
+
+        slots[slot] = pkt.retain();
+        slotTime[slot] = media;
+        slotArrival[slot] = now;
+
+        drain(now);
+    }
+
+
+// Plays out everything still held, filling any gaps, and resets for a new stream
+
+    public synchronized void flush() {
+        while (pending() > 0) playHead(true);
+        nextSeq = -1;
+        ssrc = -1;
+        baseTransit = Long.MAX_VALUE;
+        lastLen = 0;
+        lossRun = 0;
+        streamPackets = 0;
+    }
+
+
+// Drops anything still held without playing it
+
+    public synchronized void discard() {
+        for (int i = 0; i < SLOTS; i++) {
+            if (slots[i] != null) {
+                slots[i].release();
+                slots[i] = null;
+            }
+        }
+        nextSeq = -1;
+        ssrc = -1;
+        baseTransit = Long.MAX_VALUE;
+        lastLen = 0;
+        lossRun = 0;
+        streamPackets = 0;
+    }
+
+
+    public synchronized JSONObject getStatus() {
+        return new JSONObject()
+                .put("depthMs", depth / 1000.0)
+                .put("jitterMs", jitter / 1000.0)
+                .put("averageDelayMs", played == 0 ? 0 : delayTotal / played / 1000.0)
+                .put("received", received)
+                .put("played", played)
+                .put("late", late)
+                .put("duplicates", duplicates)
+                .put("concealed", concealed);
+    }
+
+
+    private void drain(long now) {
+
+        while (true) {
+            RtpPacket head = slots[nextSeq & (SLOTS - 1)];
+
+            if (head != null) {
+                if (now < slotTime[nextSeq & (SLOTS - 1)] + baseTransit + depth) return;
+                playHead(false);
+
+            } else {
+                int later = firstHeld();
+                if (later < 0 || now < slotTime[later] + baseTransit + depth) return;
+                playHead(true);
+            }
+        }
+    }
+
+
+    private void playHead(boolean force) {
+
+        int slot = nextSeq & (SLOTS - 1);
+        RtpPacket pkt = slots[slot];
+        nextSeq = (nextSeq + 1) & 0xffff;
+
+        if (pkt == null) {
+            if (force) conceal();
+            return;
+        }
+
+        slots[slot] = null;
+        played++;
+        lossRun = 0;
+        delayTotal += Math.max(0, System.nanoTime() / 1000 - slotArrival[slot]);
+
+        try {
+            ByteBuffer payload = pkt.payload();
+            lastLen = Math.min(payload.remaining(), last.length);
+            lastPt = pkt.getPayloadType();
+            ((Buffer) payload).mark();
+            payload.get(last, 0, lastLen);
+            ((Buffer) payload).reset();
+            output.accept(payload);
+
+        } finally {
+            pkt.release();
+        }
+    }
+
+
+    private void conceal() {
+
+        if (lastLen == 0) return;
+
+        concealed++;
+        if (lossRun++ > 0) {
+            Arrays.fill(last, 0, lastLen, lastPt == PT_PCMA ? PCMA_SILENCE : PCMU_SILENCE);
+        }
+
+        ((Buffer) lastView).limit(lastLen).position(0);
+        output.accept(lastView);
+    }
+
+
+    private int pending() {
+        int n = 0;
+        for (RtpPacket p : slots) if (p != null) n++;
+        return n;
+    }
+
+
+    private int firstHeld() {
+        for (int i = 1; i < SLOTS; i++) {
+            int slot = (nextSeq + i) & (SLOTS - 1);
+            if (slots[slot] != null) return slot;
+        }
+        return -1;
+    }
+
+
+// RTP timestamp in microseconds, extended past the 32 bit wrap
+
+    private long mediaTime(long ts) {
+        if (streamPackets++ == 0) {
+            extTs = ts;
+        } else {
+            extTs += (int) (ts - lastRawTs);
+        }
+        lastRawTs = ts;
+        return extTs * 1000000 / CLOCK_RATE;
+    }
+
+
+// Quickest transit is the reference for playout, let it creep later slowly so a
+// sender clock running slow does not leave every packet late
+
+    private void estimate(long transit) {
+
+        if (streamPackets > 1) {
+            long d = Math.abs(transit - lastTransit);
+            jitter += (d - jitter) / 16;
+        }
+        lastTransit = transit;
+
+        baseTransit = baseTransit == Long.MAX_VALUE ? transit : Math.min(transit, baseTransit + DRIFT_MICROS_PER_PACKET);
+
+        long target = Math.max(1000L * MIN_DEPTH_MSECS, Math.min(1000L * MAX_DEPTH_MSECS, JITTER_MULTIPLE * jitter));
+        depth += Math.max(-1000, Math.min(1000, target - depth));
+    }
+}
@@ -0,0 +1,506 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * SHARED PORT MEDIA DEMULTIPLEXER
+ *
+ * Receives forked media for many calls on a few well known ports instead of a port
+ * pair per call, so concurrency is not bounded by the port range or by sockets.
+ * Each port's streams are told apart by the source address and port the gateway
+ * sends from together with the SSRC, looked up in tables of primitive long keys with
+ * open addressing.  Each port is served by a single receive thread, so its tables are
+ * only ever touched on that thread and need no locking.  Changes asked for by other
+ * threads are queued and applied before the next packet.
+ *
+ * The XMF forking response carries nothing about where the gateway will send from,
+ * only the gateway's address is known in advance, so a listener claims a port for
+ * that address before forking is started and the first packet of a new stream from
+ * the address is latched to that claim.  A port holds at most one claim waiting for
+ * each gateway, as two would leave it to packet order which stream went to which
+ * listener, so a claim is refused when every port has one waiting for the gateway.
+ * There must be at least two ports so a call's two streams can be claimed together.
+ *
+ * A stream whose SSRC changes keeps its source port and stays with its listener.  A
+ * dropped stream is remembered while its packets keep coming and for a few seconds
+ * after, so the gateway still sending until forking is stopped does not feed the
+ * next call on the port.  Only a new claim from the same listener, a restart, picks
+ * those packets up again.  Shared ports are given large socket receive buffers as
+ * each carries the bursts of many streams.
+ *
+ * Where the platform offers SO_REUSEPORT (Java 9 onwards on Linux and BSD) each port
+ * is bound once per receive thread and the kernel hashes each source onto one of the
+ * sockets, so every thread takes a share of the streams and a stream always lands on
+ * the same thread, keeping its packets in order.  The option is looked up by
+ * reflection so the code still runs on Java 8, there each port has a single socket
+ * and the ports themselves are the shards, spread over the receive threads.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class MediaDemux {
+
+    static int TABLE_SIZE = 1024;
+    static int STRAY_MSECS = 5000;
+    static int RECEIVE_BUFFER_BYTES = 4 << 20;
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
+    private static volatile MediaDemux shared;
+
+    private final Port[] ports;
+    private final boolean reuseport;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong claimsRefused = new AtomicLong();
+
+
+    public MediaDemux(String addr, int lowPort, int highPort) throws IOException {
+
+        MediaReceiver receiver = MediaReceiver.getShared();
+        ports = new Port[Math.max(1, highPort - lowPort + 1)];
+        reuseport = receiver.getThreads() > 1 && reusePortSupported();
+
+        int shards = reuseport ? receiver.getThreads() : 1;
+
+        try {
+            for (int i = 0; i < ports.length; i++) {
+                ports[i] = new Port(lowPort + i, shards);
+                for (int n = 0; n < shards; n++) {
+                    Shard shard = new Shard(ports[i], open(addr, lowPort + i));
+                    ports[i].shards[n] = shard;
+                    shard.reg = reuseport ? receiver.register(shard.chn, shard::onPacket, n) : receiver.register(shard.chn, shard::onPacket);
+                }
+            }
+
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+
+        System.out.printf("Shared media ports %d-%d, %s%n", lowPort, lowPort + ports.length - 1,
+                reuseport ? "SO_REUSEPORT across " + shards + " receive threads" : "one socket per port");
+    }
+
+
+// Shared mode is on when set, media listeners made afterwards use it
+
+    public static void setShared(MediaDemux demux) {
+        MediaDemux old = shared;
+        shared = demux;
+        if (old != null) old.close();
+    }
+
+
+    public static MediaDemux getShared() {
+        return shared;
+    }
+
+
+// Claims a port for the listener's next stream from the given gateway address, or
+// from anywhere if null, starting from a different port each time.  Null if every
+// port already has a claim waiting for the address.
+
+    public Claim claim(MediaListener listener, InetAddress source) {
+
+        int start = Math.floorMod(next.getAndIncrement(), ports.length);
+
+        for (int n = 0; n < ports.length; n++) {
+            Port port = ports[(start + n) % ports.length];
+            Claim claim = port.offer(listener, source);
+            if (claim != null) return claim;
+        }
+
+        claimsRefused.incrementAndGet();
+        return null;
+    }
+
+
+    public void close() {
+        for (Port port : ports) {
+            if (port != null) port.close();
+        }
+    }
+
+
+    public JSONObject getStatus() {
+        JSONArray list = new JSONArray();
+        for (Port port : ports) list.put(port.getStatus());
+        return new JSONObject()
+                .put("reusePort", reuseport)
+                .put("claimsRefused", claimsRefused.get())
+                .put("ports", list);
+    }
+
+
+    private DatagramChannel open(String addr, int port) throws IOException {
+        DatagramChannel chn = DatagramChannel.open();
+        try {
+            chn.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+            if (reuseport) chn.setOption(SO_REUSEPORT, true);
+            chn.socket().bind(new InetSocketAddress(addr, port));
+            return chn;
+        } catch (IOException ex) {
+            chn.close();
+            throw ex;
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+
+    private static boolean reusePortSupported() {
+        if (SO_REUSEPORT == null) return false;
+        try (DatagramChannel chn = DatagramChannel.open()) {
+            return chn.supportedOptions().contains(SO_REUSEPORT);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+
+// Source address and port as a table key.  IPv4 sources map to a unique key, IPv6
+// ones are hashed so the stream also checks the full address.
+
+    static long sourceKey(InetSocketAddress src) {
+        InetAddress ip = src.getAddress();
+        long addr;
+        if (ip instanceof Inet4Address) {
+            byte[] b = ip.getAddress();
+            addr = (b[0] & 0xffL) << 24 | (b[1] & 0xffL) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+        } else {
+            addr = (ip.hashCode() & 0x7fffffffL) | 1L << 31;
+        }
+        return 1L << 48 | addr << 16 | src.getPort();
+    }
+
+
+// Source and SSRC together do not fit in a long so they are hashed, a clash needs
+// two streams on one port whose 64 bit hashes match
+
+    static long streamKey(long sourceKey, long ssrc) {
+        long key = sourceKey * 0x9e3779b97f4a7c15L ^ (ssrc + 1) * 0xc2b2ae3d27d4eb4fL;
+        return key == 0 ? 1 : key;
+    }
+
+
+// A listener's hold on a port, from claiming it through to when the listener drops
+// its stream
+
+    public static class Claim {
+        private final Port port;
+        private final MediaListener listener;
+        private final InetAddress source;
+        private volatile Shard shard;
+        private volatile Stream stream;
+        private volatile boolean released;
+
+        private Claim(Port port, MediaListener listener, InetAddress source) {
+            this.port = port;
+            this.listener = listener;
+            this.source = source;
+        }
+
+        boolean accepts(InetAddress from) {
+            return source == null || from == null || source.equals(from);
+        }
+
+        public int getPort() {
+            return port.number;
+        }
+
+        public boolean isLatched() {
+            return stream != null;
+        }
+
+// The shard is only known once latched, a release racing with the latch is seen by
+// one side or the other as both flags are volatile
+
+        public void release() {
+            released = true;
+            if (port.pending.remove(this)) return;
+
+            Shard latchedon = shard;
+            if (latchedon != null) latchedon.changes.add(() -> latchedon.drop(stream));
+        }
+    }
+
+
+    private static class Stream {
+        final InetSocketAddress source;
+        final Claim claim;
+        long droppedAt;
+
+        Stream(InetSocketAddress source, Claim claim) {
+            this.source = source;
+            this.claim = claim;
+        }
+
+        boolean live() {
+            return droppedAt == 0;
+        }
+
+        void drop() {
+            if (droppedAt == 0) droppedAt = Math.max(1, System.currentTimeMillis());
+        }
+    }
+
+
+    private static class Port {
+        final int number;
+        final Shard[] shards;
+        final Queue<Claim> pending = new ConcurrentLinkedQueue<>();
+        final AtomicLong latched = new AtomicLong();
+        final AtomicLong unknown = new AtomicLong();
+        final AtomicLong strays = new AtomicLong();
+
+        Port(int number, int shards) {
+            this.number = number;
+            this.shards = new Shard[shards];
+        }
+
+// Adds a claim unless one for the same address is already waiting, locked only
+// against other claims, the receive thread takes claims without it
+
+        synchronized Claim offer(MediaListener listener, InetAddress source) {
+            for (Claim claim : pending) {
+                if (claim.accepts(source)) return null;
+            }
+            Claim claim = new Claim(this, listener, source);
+            pending.add(claim);
+            return claim;
+        }
+
+// Claim the packet's source can be latched to, from the given listener if not null.
+// Removing it from the queue is what decides between shards of the same port.
+
+        Claim take(InetAddress from, MediaListener listener) {
+            for (Claim claim : pending) {
+                if (claim.accepts(from) && (listener == null || claim.listener == listener) && pending.remove(claim)) return claim;
+            }
+            return null;
+        }
+
+        void close() {
+            for (Shard shard : shards) {
+                if (shard != null) shard.close();
+            }
+        }
+
+        JSONObject getStatus() {
+            int streams = 0;
+            for (Shard shard : shards) streams += shard.streams;
+            return new JSONObject()
+                    .put("port", number)
+                    .put("sockets", shards.length)
+                    .put("streams", streams)
+                    .put("waiting", pending.size())
+                    .put("latched", latched.get())
+                    .put("unknown", unknown.get())
+                    .put("strays", strays.get());
+        }
+    }
+
+
+// One socket bound to a port and the streams the kernel has sent to it
+
+    private static class Shard {
+        final Port port;
+        final DatagramChannel chn;
+        final Queue<Runnable> changes = new ConcurrentLinkedQueue<>();
+        final SourceTable bystream = new SourceTable(TABLE_SIZE);
+        final SourceTable bysource = new SourceTable(TABLE_SIZE);
+        MediaReceiver.Registration reg;
+        volatile int streams;
+
+        Shard(Port port, DatagramChannel chn) {
+            this.port = port;
+            this.chn = chn;
+        }
+
+// Receive thread only
+
+        void onPacket(RtpPacket pkt) {
+
+            for (Runnable change; (change = changes.poll()) != null; ) change.run();
+
+            InetSocketAddress src = (InetSocketAddress) pkt.getSource();
+            long srckey = sourceKey(src);
+            long key = streamKey(srckey, pkt.getSsrc());
+            Stream s = checked(bystream.get(key), src);
+
+            if (s != null && s.live()) {
+                s.claim.listener.receive(pkt);
+                return;
+            }
+
+// A new SSRC from the source port of a live stream is that stream changing SSRC
+
+            Stream last = checked(bysource.get(srckey), src);
+            if (s == null && last != null && last.live()) {
+                bystream.put(key, last, STRAY_MSECS);
+                last.claim.listener.receive(pkt);
+                return;
+            }
+
+// A dropped stream's packets are strays while they keep coming, the gateway sends
+// until forking is stopped, unless its own listener has claimed again to restart
+
+            long now = System.currentTimeMillis();
+            boolean stray = s != null && now - s.droppedAt < STRAY_MSECS;
+
+            Claim claim = port.take(src.getAddress(), stray ? s.claim.listener : null);
+            if (claim == null) {
+                if (stray) {
+                    s.droppedAt = now;
+                    port.strays.incrementAndGet();
+                } else {
+                    port.unknown.incrementAndGet();
+                }
+                return;
+            }
+
+            s = new Stream(src, claim);
+            claim.stream = s;
+            claim.shard = this;
+            bystream.put(key, s, STRAY_MSECS);
+            bysource.put(srckey, s, STRAY_MSECS);
+            port.latched.incrementAndGet();
+
+            if (claim.released) {
+                drop(s);
+                return;
+            }
+
+            streams = bysource.live();
+            claim.listener.receive(pkt);
+        }
+
+        void drop(Stream s) {
+            if (s != null) s.drop();
+            streams = bysource.live();
+        }
+
+        private static Stream checked(Stream s, InetSocketAddress src) {
+            return s != null && s.source.equals(src) ? s : null;
+        }
+
+        void close() {
+            if (reg != null) reg.cancel();
+            try {
+                chn.close();
+            } catch (IOException ex) { }
+        }
+    }
+
+
+// Open addressing table of long keys with linear probing, 0 marks an empty slot.
+// Dropped streams stay in place until they are past the stray period and the table
+// needs room, they are cleared out as it is rebuilt.  A stream can be under more than
+// one key, one for each SSRC it has used.
+
+    private static class SourceTable {
+        private long[] keys;
+        private Stream[] values;
+        private int size;
+
+        SourceTable(int capacity) {
+            int n = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+            keys = new long[n];
+            values = new Stream[n];
+        }
+
+        Stream get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return null;
+        }
+
+        void put(long key, Stream value, long strayMsecs) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            for (; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+
+            keys[i] = key;
+            values[i] = value;
+            if (++size > keys.length * 3 / 4) rebuild(strayMsecs);
+        }
+
+        int live() {
+            int n = 0;
+            for (Stream s : values) if (s != null && s.live()) n++;
+            return n;
+        }
+
+        private void rebuild(long strayMsecs) {
+            long now = System.currentTimeMillis();
+            long[] oldkeys = keys;
+            Stream[] oldvalues = values;
+
+            int keep = 0;
+            for (Stream s : oldvalues) {
+                if (s != null && (s.live() || now - s.droppedAt < strayMsecs)) keep++;
+            }
+
+            int n = keys.length;
+            while (keep > n / 2) n <<= 1;
+
+            keys = new long[n];
+            values = new Stream[n];
+            size = 0;
+
+            int mask = n - 1;
+            for (int j = 0; j < oldkeys.length; j++) {
+                Stream s = oldvalues[j];
+                if (s == null || !(s.live() || now - s.droppedAt < strayMsecs)) continue;
+
+                int i = mix(oldkeys[j]) & mask;
+                while (keys[i] != 0) i = (i + 1) & mask;
+                keys[i] = oldkeys[j];
+                values[i] = s;
+                size++;
+            }
+        }
+
+        private static int mix(long key) {
+            key *= 0x9e3779b97f4a7c15L;
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
@@ -12,8 +12,14 @@ package com.cisco.pt.gwxmf;
  *
  * MEDIA LISTENING AND HANDLER
  * 
- * Handles asynchronous reading of forked RTP streams.  Currently assumes G.711 and
- * 20ms packetisation.
+ * Handles asynchronous reading of forked RTP streams.  Currently assumes G.711, the
+ * packetisation time is detected from the stream's RTP timestamps.  Packets are
+ * received by the shared MediaReceiver engine and ports come from a PortAllocator
+ * over the configured range, returned on close.  When a MediaDemux is set up the
+ * listener instead shares its ports with other calls, it binds nothing and its port
+ * is only known once started.  Audio can be taken through a JitterBuffer so it
+ * arrives in order with gaps filled.  RFC 3550 reception statistics are kept for
+ * every packet, see RtpStreamStats.
  *
  * -----------------------------------------------------------------------------------
  * 1.0,  Paul Tindall, Cisco, 13 Jul 2018 Initial version
@@ -22,39 +28,78 @@ package com.cisco.pt.gwxmf;
 
 import java.io.IOException;
 import java.net.BindException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.Arrays;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import org.json.JSONObject;
 
 public class MediaListener {
 
     static int RTPBASEPORT = 16384;
-    static int RTPBUFLEN = 172;
+    static int RTPMAXPORT = 32767;
     static int MAXBINDATTEMPTS = 16;
-    private static int port = 0;
+    static int RTPCLOCKRATE = 8000;
+    static int PTIME_CONFIRM_PACKETS = 3;
+    static int QUEUE_FRAMES = 50;
+    static MediaQueue.Policy QUEUE_POLICY = MediaQueue.Policy.DROP_OLDEST;
+    private static volatile PortAllocator ports = new PortAllocator(RTPBASEPORT, RTPMAXPORT);
+    private static volatile Executor consumers = ForkJoinPool.commonPool();
 
-    private final DatagramChannel chn;
-    private final ByteBuffer rxbuf;
-    private final int rxport;
-    private boolean active;
-    private Consumer<byte[]> pkthandler;
+    private volatile DatagramChannel chn;
+    private final InetSocketAddress bindaddr;
+    private final PortAllocator allocator;
+    private final MediaDemux demux;
+    private volatile int rxport;
+    private boolean closed;
+    private MediaDemux.Claim claim;
+    private volatile InetAddress source;
+    private MediaReceiver.Registration active;
+    private boolean registered;
+    private volatile Consumer<RtpPacket> pkthandler;
+    private volatile JitterBuffer jitter;
+    private volatile MediaQueue queue;
+    private final RtpStreamStats stats = new RtpStreamStats(RTPCLOCKRATE);
+    private volatile int ptime;
+    private int lastseq = -1;
+    private long lastts;
+    private long lastssrc;
+    private int candidate;
+    private int confirmed;
 
 
     public MediaListener(String addr) throws IOException, MediaForkingException {
 
+        demux = MediaDemux.getShared();
+        if (demux != null) {
+            chn = null;
+            bindaddr = null;
+            allocator = null;
+            return;
+        }
+
         int newport = 0;
+        allocator = ports;
         chn = DatagramChannel.open();
 
+// A port in use by something else is handed back, the allocator will not offer it
+// again until it has been round the rest of the range
+
         for (int i = 0; i < MAXBINDATTEMPTS; i++) {
-            newport = (RTPBASEPORT + port++) & 0xffff;
+            newport = allocator.allocate();
+            if (newport < 0) {
+                newport = 0;
+                break;
+            }
+
             try {
                 chn.socket().bind(new InetSocketAddress(addr, newport));
                 break;
             } catch (BindException ex) {
+                allocator.release(newport);
                 newport = 0;
             }
         }
@@ -65,64 +110,197 @@ public class MediaListener {
 
         } else {
             rxport = newport;
-            rxbuf = ByteBuffer.allocate(RTPBUFLEN);
+            bindaddr = new InetSocketAddress(addr, newport);
         }
     }
 
 
+    public static void setPortRange(int low, int high) {
+        RTPBASEPORT = low;
+        RTPMAXPORT = high;
+        ports = new PortAllocator(low, high);
+    }
+
+
+    public static PortAllocator getPorts() {
+        return ports;
+    }
+
+
+// Pool that audio handlers are run on, off the receive threads
+
+    public static void setConsumerPool(Executor pool) {
+        consumers = pool;
+    }
+
+
     public void close() throws IOException {
-        chn.close();
+        stop();
+        if (chn != null) chn.close();
+
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        if (allocator != null) allocator.release(rxport);
     }
     
     
-    public void start() {
-        if (!active) {
-            readAsync();
-            active = true;
+// Address media is expected from, on a shared port only a stream from there is taken
+// as this listener's
+
+    public void expectFrom(String addr) throws IOException {
+        source = addr == null ? null : InetAddress.getByName(addr);
+    }
+
+
+// On a shared port each start claims the port afresh, the gateway may send the next
+// stream from a different source port
+
+    public synchronized void start() throws IOException, MediaForkingException {
+        if (demux != null) {
+            if (claim == null) {
+                claim = demux.claim(this, source);
+                if (claim == null) throw new MediaForkingException("No shared media port free to receive a new stream");
+                rxport = claim.getPort();
+            }
+
+        } else if (active == null) {
+            MediaReceiver receiver = MediaReceiver.getShared();
+
+// A stream thread is interrupted when its registration is cancelled, closing the
+// channel, so after a stop the port is bound again on a new channel
+
+            if (registered && receiver.isThreadPerStream()) {
+                chn.close();
+                chn = DatagramChannel.open();
+                chn.socket().bind(bindaddr);
+            }
+            active = receiver.register(chn, this::receive);
+            registered = true;
         }
     }
 
 
-    public void stop() {
-        active = false;
+    public synchronized void stop() {
+        if (active != null) {
+            active.cancel();
+            active = null;
+        }
+        if (claim != null) {
+            claim.release();
+            claim = null;
+        }
     }
 
 
-    public int getPort() {
-        return rxport;
+// Handler is given each packet in place on the receive thread, see RtpPacket
+
+    public void processPackets(Consumer<RtpPacket> handler) {
+        pkthandler = handler;
+    }
+
+
+// Handler is given each frame's payload in sequence order, reordered and with losses
+// concealed by the jitter buffer.  It runs on the consumer pool fed through a bounded
+// MediaQueue, so it may block without holding up reception, frames are dropped if it
+// falls too far behind.  The buffer is only valid for the call.
+
+    public void processAudio(Consumer<ByteBuffer> handler) {
+        MediaQueue mq = new MediaQueue(QUEUE_FRAMES, QUEUE_POLICY, consumers, handler);
+        JitterBuffer jb = new JitterBuffer(mq::offer);
+        queue = mq;
+        jitter = jb;
+        pkthandler = jb::push;
     }
 
 
     public void processMedia(Consumer<byte[]> handler) {
-        pkthandler = handler;
+        processAudio((audio) -> {
+            byte[] payload = new byte[audio.remaining()];
+            audio.get(payload);
+            handler.accept(payload);
+        });
     }
 
 
     public void discardMedia() {
         pkthandler = null;
+        JitterBuffer jb = jitter;
+        if (jb != null) jb.discard();
+        MediaQueue mq = queue;
+        if (mq != null) mq.discard();
     }
 
 
-    private void readAsync() {
-        CompletableFuture.runAsync(() -> {
-            try {
-                SocketAddress client = chn.receive(rxbuf);
-//                System.out.printf("Received %d bytes on port %d from %s%n",  rxbuf.position(), rxport, client);
-            } catch (IOException ex) {
-                System.out.println(ex);
-            }
+// Port to fork to, for a shared port this is 0 until the listener is started
+
+    public int getPort() {
+        return rxport;
+    }
+
+
+// Packetisation time in milliseconds once detected, otherwise 0
 
-        }).thenRunAsync(() -> {
-            if (pkthandler != null) {
-                int pktlen = rxbuf.position();
-                byte[] hdr = Arrays.copyOfRange(rxbuf.array(), 0, 12);
-                byte[] payload = Arrays.copyOfRange(rxbuf.array(), 12, pktlen);
-                long seq = (((int) hdr[2] & 0xff) << 8) + (((int) hdr[3]) & 0xff);
-//                System.out.printf("Processing RTP packet on port %d, bytes = %d, sequence = %d%n", rxport, pktlen, seq);
-                pkthandler.accept(payload);
+    public int getPacketTime() {
+        return ptime;
+    }
+
+
+    public JSONObject getStatus() {
+        JitterBuffer jb = jitter;
+        JSONObject status = new JSONObject().put("port", rxport).put("shared", demux != null).put("packetTime", ptime).put("stats", stats.getStatus());
+        if (jb != null) status.put("jitterBuffer", jb.getStatus());
+        MediaQueue mq = queue;
+        if (mq != null) status.put("queue", mq.getStatus());
+        return status;
+    }
+
+
+    public RtpStreamStats getStats() {
+        return stats;
+    }
+
+
+    void receive(RtpPacket pkt) {
+//        System.out.printf("Processing RTP packet on port %d from %s, bytes = %d, sequence = %d%n", rxport, pkt.getSource(), pkt.getPayloadLength(), pkt.getSequence());
+        stats.update(pkt, System.nanoTime());
+        detectPacketTime(pkt);
+        Consumer<RtpPacket> handler = pkthandler;
+        if (handler != null) handler.accept(pkt);
+    }
+
+
+// Timestamp step between consecutive packets of the same source gives the samples per
+// packet, a new value must be seen on a few packets in a row before it is taken up.
+// Always called on the same receive thread so needs no locking.
+
+    private void detectPacketTime(RtpPacket pkt) {
+
+        int seq = pkt.getSequence();
+        long ts = pkt.getTimestamp();
+        long ssrc = pkt.getSsrc();
+
+        if (lastseq >= 0 && ssrc == lastssrc && seq == ((lastseq + 1) & 0xffff)) {
+            long step = (ts - lastts) & 0xffffffffL;
+            int ms = (int) (step * 1000 / RTPCLOCKRATE);
+
+            if (ms > 0 && ms <= 1000 && ms != ptime) {
+                confirmed = ms == candidate ? confirmed + 1 : 1;
+                candidate = ms;
+
+                if (confirmed >= PTIME_CONFIRM_PACKETS) {
+                    System.out.printf("RTP stream on port %d packetisation %d ms%n", rxport, ms);
+                    ptime = ms;
+                }
+
+            } else {
+                confirmed = 0;
             }
-            rxbuf.clear();
-            if (active) readAsync();
-        });
+        }
+
+        lastseq = seq;
+        lastts = ts;
+        lastssrc = ssrc;
     }
 }
@@ -0,0 +1,197 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * MEDIA HAND-OFF QUEUE
+ *
+ * Bounded queue of audio frames between a stream's receive thread, the only producer,
+ * and whatever consumes the audio, so a consumer that stalls (such as a speech
+ * service pushing back on its stream) never holds up the receive thread and so never
+ * leaves packets to overflow the socket buffer.  Frames are copied into a ring of
+ * reusable slots and the consumer is run on a pool thread when there is something to
+ * take, one frame at a time and never on two threads at once, so the ring has a
+ * single producer and single consumer and needs no locks.
+ *
+ * When the ring is full the policy says which frame is lost: DROP_NEWEST refuses the
+ * arriving frame, DROP_OLDEST moves the head on past the oldest, keeping the audio
+ * current.  The consumer copies a frame out and then takes it with compare and set on
+ * the head, if the producer dropped it meanwhile the copy is thrown away.  The ring
+ * has one slot more than its capacity so the producer never writes to the slot the
+ * consumer is copying from.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+public class MediaQueue {
+
+    static int BATCH_SIZE = 16;
+
+    public enum Policy { DROP_OLDEST, DROP_NEWEST }
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+
+    private final int capacity;
+    private final Policy policy;
+    private final Executor pool;
+    private final Consumer<ByteBuffer> consumer;
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final byte[] frame;
+    private final ByteBuffer frameView;
+
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private volatile boolean discarded;
+
+    private long offered;
+    private long dropped;
+    private int highWater;
+    private final AtomicLong failures = new AtomicLong();
+
+
+    public MediaQueue(int capacity, Policy policy, Executor pool, Consumer<ByteBuffer> consumer) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.pool = pool;
+        this.consumer = consumer;
+        slots = new byte[this.capacity + 1][];
+        lengths = new int[this.capacity + 1];
+        frame = new byte[MediaReceiver.MAX_PACKET_LEN];
+        frameView = ByteBuffer.wrap(frame);
+    }
+
+
+// Producer side, the frame is copied so the buffer can be reused once this returns
+
+    public void offer(ByteBuffer data) {
+
+        offered++;
+        long t = tail;
+
+        if (t - head.get() >= capacity) {
+            if (policy == Policy.DROP_NEWEST) {
+                dropped++;
+                schedule();
+                return;
+            }
+
+            long h = head.get();
+            if (t - h >= capacity && head.compareAndSet(h, h + 1)) dropped++;
+        }
+
+        int slot = (int) (t % slots.length);
+        int len = Math.min(data.remaining(), frame.length);
+        if (slots[slot] == null || slots[slot].length < len) slots[slot] = new byte[len];
+
+        ((Buffer) data).mark();
+        data.get(slots[slot], 0, len);
+        ((Buffer) data).reset();
+        lengths[slot] = len;
+        tail = t + 1;
+
+        int depth = (int) (t + 1 - head.get());
+        if (depth > highWater) highWater = depth;
+
+        schedule();
+    }
+
+
+// Frames still queued or offered later are thrown away rather than consumed
+
+    public void discard() {
+        discarded = true;
+    }
+
+
+    public int size() {
+        return (int) Math.max(0, tail - head.get());
+    }
+
+
+    public JSONObject getStatus() {
+        return new JSONObject()
+                .put("capacity", capacity)
+                .put("policy", policy)
+                .put("depth", size())
+                .put("highWater", highWater)
+                .put("offered", offered)
+                .put("dropped", dropped)
+                .put("consumerErrors", failures.get());
+    }
+
+
+    private void schedule() {
+        if (state.compareAndSet(IDLE, SCHEDULED)) {
+            try {
+                pool.execute(this::drain);
+            } catch (RuntimeException ex) {
+                state.set(IDLE);
+                throw ex;
+            }
+        }
+    }
+
+
+// Run a batch then hand the thread back, rescheduling if more arrived meanwhile
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                if (!take()) break;
+                if (discarded) continue;
+
+                try {
+                    consumer.accept(frameView);
+                } catch (RuntimeException ex) {
+                    failures.incrementAndGet();
+                    System.out.println("Media consumer failed: " + ex);
+                }
+            }
+
+        } finally {
+            state.set(IDLE);
+            if (size() > 0) schedule();
+        }
+    }
+
+
+// Copies the oldest frame out then claims it, trying again if it was dropped while
+// being copied
+
+    private boolean take() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail) return false;
+
+            int slot = (int) (h % slots.length);
+            byte[] src = slots[slot];
+            int len = Math.min(lengths[slot], src.length);
+            System.arraycopy(src, 0, frame, 0, len);
+
+            if (head.compareAndSet(h, h + 1)) {
+                ((Buffer) frameView).limit(len).position(0);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * RTP RECEIVE ENGINE
+ *
+ * Receives forked media for every stream on a small fixed set of threads, each
+ * running a selector over its share of the non-blocking RTP channels, rather than a
+ * blocked pool thread per stream.  A stream costs a selection key, not a thread, so
+ * thousands can be active at once.
+ *
+ * Packets are received straight into pooled RtpPacket buffers and passed to the
+ * stream's handler on the receive thread, then returned to the pool unless the
+ * handler retained them, so nothing is allocated per packet.  Handlers must not
+ * block.  Receive buffers are sized from the largest interface MTU so packets with
+ * CSRCs, header extensions or long packetisation times are never cut short.
+ * Each channel is read a limited number of times per wake up so one busy
+ * stream cannot hold up the others on the same thread.
+ *
+ * Alternatively, given a thread factory, each stream gets its own thread doing
+ * blocking reads, meant for virtual threads on Java 21 where a blocked read does not
+ * tie up a platform thread.  A cancelled stream's thread is interrupted so it stops
+ * at once, which closes the channel, so an owner registering again after a cancel
+ * has to open a new one.
+ *
+ * Closing the receiver cancels every stream, closes the channels and ends the receive
+ * threads, so a redeployed servlet leaves none behind.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+public class MediaReceiver {
+
+    static int RECEIVE_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    static int MAX_PACKET_LEN = maxPacketLength();
+    static int READS_PER_WAKEUP = 8;
+    static int PACKET_POOL_SIZE = 256;
+    static ThreadFactory STREAM_THREADS;
+
+    public interface PacketHandler {
+        void onPacket(RtpPacket pkt);
+    }
+
+    private static MediaReceiver shared;
+
+    private final Loop[] loops;
+    private final Thread[] loopThreads;
+    private final Set<Registration> registered = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+    private final RtpPacket.Pool pool;
+    private final ThreadFactory streamThreads;
+
+
+// Thread per stream when STREAM_THREADS is set before first use
+
+    public static synchronized MediaReceiver getShared() throws IOException {
+        if (shared == null) {
+            shared = STREAM_THREADS != null ? new MediaReceiver(STREAM_THREADS) : new MediaReceiver("rtp-rx", RECEIVE_THREADS);
+        }
+        return shared;
+    }
+
+
+// The next getShared() starts a new one
+
+    public static synchronized void closeShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+
+
+    public MediaReceiver(String name, int threads) throws IOException {
+        pool = new RtpPacket.Pool(PACKET_POOL_SIZE * Math.max(1, threads), MAX_PACKET_LEN);
+        streamThreads = null;
+        loops = new Loop[Math.max(1, threads)];
+        loopThreads = new Thread[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop();
+            loopThreads[i] = new Thread(loops[i], name + "-" + (i + 1));
+            loopThreads[i].setDaemon(true);
+            loopThreads[i].start();
+        }
+    }
+
+
+    public MediaReceiver(ThreadFactory streamThreads) {
+        pool = new RtpPacket.Pool(PACKET_POOL_SIZE, MAX_PACKET_LEN);
+        this.streamThreads = streamThreads;
+        loops = new Loop[0];
+        loopThreads = new Thread[0];
+    }
+
+
+// The channel must already be bound, it is switched to non-blocking here unless
+// streams have their own threads
+
+    public Registration register(DatagramChannel chn, PacketHandler handler) throws IOException {
+        return register(chn, handler, next.getAndIncrement());
+    }
+
+
+// Registers on a given receive thread, such as one of a set of sockets sharing a port
+
+    public Registration register(DatagramChannel chn, PacketHandler handler, int thread) throws IOException {
+
+        if (closed) throw new ClosedChannelException();
+
+        if (streamThreads != null) {
+            chn.configureBlocking(true);
+            Registration reg = new Registration(null, chn, handler);
+            streams.incrementAndGet();
+            registered.add(reg);
+            reg.thread = streamThreads.newThread(reg::receiveLoop);
+            reg.thread.start();
+            return reg;
+        }
+
+        chn.configureBlocking(false);
+        Loop loop = loops[Math.floorMod(thread, loops.length)];
+        Registration reg = new Registration(loop, chn, handler);
+        registered.add(reg);
+        loop.submit(reg::attach);
+        streams.incrementAndGet();
+        return reg;
+    }
+
+
+// Cancels every stream and closes its channel, then waits briefly for the receive
+// threads to finish
+
+    public void close() {
+        closed = true;
+
+        for (Registration reg : registered) {
+            reg.cancel();
+            try {
+                reg.chn.close();
+            } catch (IOException ex) { }
+        }
+
+        for (Loop loop : loops) loop.submit(loop::shutdown);
+
+        for (Thread t : loopThreads) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    public int getThreads() {
+        return Math.max(1, loops.length);
+    }
+
+
+// When true a cancelled registration's channel is closed, or soon will be
+
+    public boolean isThreadPerStream() {
+        return streamThreads != null;
+    }
+
+
+    public JSONObject getStatus() {
+        return new JSONObject()
+                .put("threads", streamThreads != null ? "per stream" : loops.length)
+                .put("streams", streams.get())
+                .put("packets", packets.get())
+                .put("bufferSize", MAX_PACKET_LEN)
+                .put("invalid", invalid.get())
+                .put("truncated", truncated.get())
+                .put("errors", errors.get())
+                .put("pool", pool.getStatus());
+    }
+
+
+// One more than the largest datagram an interface can carry, so a full buffer shows
+// a packet was cut short
+
+    private static int maxPacketLength() {
+        int mtu = 1500;
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (nif.isUp() && !nif.isLoopback()) mtu = Math.max(mtu, nif.getMTU());
+            }
+        } catch (SocketException ex) { }
+
+        return Math.min(mtu, 65535) + 1;
+    }
+
+
+    public class Registration {
+        private final Loop loop;
+        private final DatagramChannel chn;
+        private final PacketHandler handler;
+        private volatile SelectionKey key;
+        private volatile Thread thread;
+        private volatile boolean cancelled;
+
+        private Registration(Loop loop, DatagramChannel chn, PacketHandler handler) {
+            this.loop = loop;
+            this.chn = chn;
+            this.handler = handler;
+        }
+
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            registered.remove(this);
+            streams.decrementAndGet();
+            if (loop != null) {
+                loop.submit(() -> {
+                    if (key != null) key.cancel();
+                });
+            } else if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+
+        private void receiveLoop() {
+            while (!cancelled && chn.isOpen()) {
+                RtpPacket pkt = pool.acquire();
+                try {
+                    SocketAddress from = chn.receive(pkt.buffer());
+                    if (from != null && !cancelled) deliver(this, pkt, from);
+
+                } catch (IOException ex) {
+                    if (chn.isOpen()) errors.incrementAndGet();
+                    break;
+
+                } catch (RuntimeException ex) {
+                    errors.incrementAndGet();
+                    System.out.println("RTP packet handler error: " + ex);
+
+                } finally {
+                    pkt.release();
+                }
+            }
+        }
+
+        private void attach() {
+            if (cancelled) return;
+            try {
+                key = chn.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (ClosedChannelException ex) {
+                cancel();
+            }
+        }
+    }
+
+
+    private void deliver(Registration reg, RtpPacket pkt, SocketAddress from) {
+        packets.incrementAndGet();
+        if (pkt.parse(from)) {
+            reg.handler.onPacket(pkt);
+        } else if (pkt.isTruncated()) {
+            truncated.incrementAndGet();
+        } else {
+            invalid.incrementAndGet();
+        }
+    }
+
+
+    private class Loop implements Runnable {
+        final Selector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        Loop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            try {
+                selector.close();
+            } catch (IOException ex) { }
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+
+                    for (Runnable task; (task = tasks.poll()) != null; ) task.run();
+                    if (!selector.isOpen()) break;
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable()) read(key);
+                    }
+
+                } catch (IOException | RuntimeException ex) {
+                    errors.incrementAndGet();
+                    System.out.println("RTP receive loop error: " + ex);
+                }
+            }
+        }
+
+        private void read(SelectionKey key) {
+            Registration reg = (Registration) key.attachment();
+
+            for (int i = 0; i < READS_PER_WAKEUP && !reg.cancelled; i++) {
+                RtpPacket pkt = pool.acquire();
+                try {
+                    SocketAddress from = reg.chn.receive(pkt.buffer());
+                    if (from == null) return;
+
+                    deliver(reg, pkt, from);
+
+                } catch (IOException ex) {
+                    errors.incrementAndGet();
+                    reg.cancel();
+                    return;
+
+                } catch (RuntimeException ex) {
+                    errors.incrementAndGet();
+                    System.out.println("RTP packet handler error: " + ex);
+
+                } finally {
+                    pkt.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * MEDIA SERVER FORK TARGET
+ *
+ * A media server in a target pool along with the range of ports it receives forked
+ * media on.  Each forking session takes a block of four ports from the range, RTP
+ * and RTCP for the calling and called streams, so the calling stream goes to the
+ * first even port of the block and the called stream to the next even port.
+ *
+ * A server can be given a health check, either an HTTP URL that must answer 2xx or
+ * udp:<port> for an echo service on the server that must return the probe datagram.
+ * The server is taken out of selection after consecutive failed checks and put back
+ * after the first one that succeeds.  Servers with no health check are always
+ * treated as healthy.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.json.JSONObject;
+
+public class MediaServer {
+
+    static final int PORTS_PER_SESSION = 4;
+    static int PROBE_TIMEOUT_MSECS = 2000;
+    static int PROBE_FAILURES = 2;
+
+    final String address;
+    volatile String name;
+    volatile int weight;
+    volatile String healthCheck;
+    volatile boolean healthy = true;
+    volatile long lastProbe;
+    volatile String lastProbeResult;
+    final int lowPort;
+    final int highPort;
+
+    private final int slots;
+    private final BitSet inuse;
+    private int next;
+    private int sessions;
+    private int failures;
+
+
+    public MediaServer(String name, String address, int weight, int lowPort, int highPort) {
+        this.name = name;
+        this.address = address;
+        this.weight = Math.max(1, weight);
+        this.lowPort = lowPort + (lowPort & 1);
+        this.highPort = highPort;
+
+        slots = Math.max(0, (this.highPort - this.lowPort + 1) / PORTS_PER_SESSION);
+        inuse = new BitSet(slots);
+    }
+
+
+    public static MediaServer fromJSON(JSONObject cfg) {
+        String address = cfg.getString("address");
+        String[] range = cfg.optString("ports", "16384-32767").split("\\s*-\\s*");
+        MediaServer server = new MediaServer(cfg.optString("name", address), address, cfg.optInt("weight", 1),
+                                             Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+        server.healthCheck = cfg.optString("health", null);
+        return server;
+    }
+
+
+// Same server and port range in a reloaded configuration, port allocations are then
+// carried over rather than starting again from empty
+
+    public String key() {
+        return address + ":" + lowPort + "-" + highPort;
+    }
+
+
+    public void configure(MediaServer cfg) {
+        name = cfg.name;
+        weight = cfg.weight;
+        if (cfg.healthCheck == null || !cfg.healthCheck.equals(healthCheck)) {
+            healthCheck = cfg.healthCheck;
+            healthy = true;
+            synchronized (this) {
+                failures = 0;
+            }
+        }
+    }
+
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+
+// Blocks for up to the probe timeout so is run on a pool thread, never the wheel
+
+    public void probe() {
+
+        String check = healthCheck;
+        if (check == null) return;
+
+        String result;
+        try {
+            if (check.startsWith("udp:")) {
+                probeUdp(Integer.parseInt(check.substring(4).trim()));
+            } else {
+                probeHttp(check);
+            }
+            result = "OK";
+
+        } catch (IOException | RuntimeException ex) {
+            result = ex.toString();
+        }
+
+        boolean up = "OK".equals(result);
+        boolean changed;
+
+        synchronized (this) {
+            failures = up ? 0 : failures + 1;
+            boolean now = up || (healthy && failures < PROBE_FAILURES);
+            changed = now != healthy;
+            healthy = now;
+        }
+
+        lastProbe = System.currentTimeMillis();
+        lastProbeResult = result;
+
+        if (changed) {
+            System.out.println("Media server " + name + " (" + address + ") is now " + (up ? "healthy" : "unhealthy: " + result));
+        }
+    }
+
+
+    private void probeUdp(int port) throws IOException {
+
+        byte[] ping = ("probe " + System.nanoTime()).getBytes(StandardCharsets.US_ASCII);
+        byte[] buf = new byte[ping.length];
+
+        try (DatagramSocket sock = new DatagramSocket()) {
+            sock.setSoTimeout(PROBE_TIMEOUT_MSECS);
+            sock.send(new DatagramPacket(ping, ping.length, new InetSocketAddress(address, port)));
+
+            DatagramPacket reply = new DatagramPacket(buf, buf.length);
+            sock.receive(reply);
+            if (reply.getLength() != ping.length || !Arrays.equals(ping, buf)) {
+                throw new IOException("Unexpected echo reply");
+            }
+        }
+    }
+
+
+    private void probeHttp(String url) throws IOException {
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(PROBE_TIMEOUT_MSECS);
+        conn.setReadTimeout(PROBE_TIMEOUT_MSECS);
+        conn.setUseCaches(false);
+
+        try {
+            int status = conn.getResponseCode();
+            if (status < 200 || status > 299) {
+                throw new IOException("HTTP status " + status);
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+
+    public synchronized Session allocate(String pool) {
+
+        if (sessions >= slots) return null;
+
+        int slot = inuse.nextClearBit(next);
+        if (slot >= slots) slot = inuse.nextClearBit(0);
+
+        inuse.set(slot);
+        next = (slot + 1) % slots;
+        sessions++;
+        return new Session(pool, lowPort + PORTS_PER_SESSION * slot, slot);
+    }
+
+
+    public synchronized int getSessions() {
+        return sessions;
+    }
+
+
+    public int getCapacity() {
+        return slots;
+    }
+
+
+    public JSONObject getStatus() {
+        JSONObject status = new JSONObject()
+                .put("name", name)
+                .put("address", address)
+                .put("weight", weight)
+                .put("ports", lowPort + "-" + highPort)
+                .put("sessions", getSessions())
+                .put("capacity", slots)
+                .put("healthy", healthy);
+
+        if (healthCheck != null) {
+            status.put("health", healthCheck).put("lastProbe", lastProbe).put("lastProbeResult", lastProbeResult);
+        }
+
+        return status;
+    }
+
+
+    private synchronized void release(int slot) {
+        if (inuse.get(slot)) {
+            inuse.clear(slot);
+            sessions--;
+        }
+    }
+
+
+    public class Session {
+        final String pool;
+        final int port;
+        private final int slot;
+        private boolean released;
+
+        private Session(String pool, int port, int slot) {
+            this.pool = pool;
+            this.port = port;
+            this.slot = slot;
+        }
+
+        public MediaServer getServer() {
+            return MediaServer.this;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getCallingPort() {
+            return port;
+        }
+
+        public int getCalledPort() {
+            return port + 2;
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                MediaServer.this.release(slot);
+            }
+        }
+    }
+}
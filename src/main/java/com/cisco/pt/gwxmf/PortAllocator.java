@@ -0,0 +1,122 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * RTP PORT ALLOCATOR
+ *
+ * Hands out RTP ports from a fixed range for media listeners.  Ports are allocated
+ * in even/odd pairs, the even port for RTP and the odd one kept free for RTCP, and
+ * each pair is one bit in a bitmap of 64 bit words claimed and cleared with compare
+ * and set, so allocation and release never lock.  A shared cursor moves on past each
+ * word allocated from, so the search normally finds a free bit in the first word it
+ * looks at and recently released ports are not handed straight out again.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONObject;
+
+public class PortAllocator {
+
+    private final int lowPort;
+    private final int highPort;
+    private final int pairs;
+    private final AtomicLongArray bitmap;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicInteger inuse = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+
+    public PortAllocator(int lowPort, int highPort) {
+        this.lowPort = lowPort + (lowPort & 1);
+        this.highPort = highPort;
+        pairs = Math.max(0, (highPort - this.lowPort + 1) / 2);
+        bitmap = new AtomicLongArray((pairs + 63) / 64);
+
+// Bits past the end of the range in the last word are set so they are never handed out
+
+        int spare = bitmap.length() * 64 - pairs;
+        if (spare > 0) bitmap.set(bitmap.length() - 1, -1L << (64 - spare));
+    }
+
+
+// Returns the even RTP port of a free pair, or -1 if the range is used up
+
+    public int allocate() {
+
+        int words = bitmap.length();
+        int start = Math.floorMod(cursor.get(), Math.max(1, words));
+
+        for (int n = 0; n < words; n++) {
+            int w = (start + n) % words;
+            long bits = bitmap.get(w);
+
+            while (bits != -1L) {
+                int bit = Long.numberOfTrailingZeros(~bits);
+                if (bitmap.compareAndSet(w, bits, bits | (1L << bit))) {
+                    cursor.lazySet(w + 1);
+                    allocations.incrementAndGet();
+                    peak.accumulateAndGet(inuse.incrementAndGet(), Math::max);
+                    return lowPort + 2 * (w * 64 + bit);
+                }
+                bits = bitmap.get(w);
+            }
+        }
+
+        exhausted.incrementAndGet();
+        return -1;
+    }
+
+
+    public void release(int port) {
+
+        int pair = (port - lowPort) / 2;
+        if (port < lowPort || pair >= pairs) return;
+
+        int w = pair / 64;
+        long mask = 1L << (pair % 64);
+
+        for (long bits = bitmap.get(w); (bits & mask) != 0; bits = bitmap.get(w)) {
+            if (bitmap.compareAndSet(w, bits, bits & ~mask)) {
+                inuse.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+
+    public int getCapacity() {
+        return pairs;
+    }
+
+
+    public int getInUse() {
+        return inuse.get();
+    }
+
+
+    public JSONObject getStatus() {
+        return new JSONObject()
+                .put("range", lowPort + "-" + highPort)
+                .put("capacity", pairs)
+                .put("inUse", inuse.get())
+                .put("peak", peak.get())
+                .put("allocations", allocations.get())
+                .put("exhausted", exhausted.get());
+    }
+}
@@ -0,0 +1,247 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * RTP PACKET VIEW
+ *
+ * Received RTP packet as a read only view over a pooled direct buffer, so packets
+ * reach media handlers without being copied or allocated.  Header fields are read in
+ * place and the payload is offered as a slice of the same buffer.  The full RFC 3550
+ * fixed header is parsed, the payload starts after any CSRC list and header
+ * extension and ends before any padding.
+ *
+ * A packet belongs to the receive engine and goes back to the pool as soon as the
+ * handler returns.  A consumer that keeps the packet beyond that, such as to pass it
+ * to another thread, must call retain() first and release() when done.  payload()
+ * always returns the same view object, another thread should take its own duplicate.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.net.SocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+public final class RtpPacket {
+
+    static final int HEADER_LEN = 12;
+    static final int RTP_VERSION = 2;
+
+    private final Pool pool;
+    private final ByteBuffer buf;
+    private final ByteBuffer view;
+    private final AtomicInteger refs = new AtomicInteger();
+    private SocketAddress source;
+    private int length;
+    private int payloadOffset;
+    private int payloadEnd;
+    private boolean truncated;
+
+
+    private RtpPacket(Pool pool, int capacity) {
+        this.pool = pool;
+        buf = ByteBuffer.allocateDirect(capacity);
+        view = buf.asReadOnlyBuffer();
+    }
+
+
+// Receive buffer, cleared ready for the next datagram.  Buffer methods are called
+// through Buffer so a build on a later JDK still runs on Java 8.
+
+    ByteBuffer buffer() {
+        ((Buffer) buf).clear();
+        return buf;
+    }
+
+
+// Called once the datagram is in the buffer, false if it is not a usable RTP packet.
+// A datagram filling the whole buffer may have been cut short so is not used.
+
+    boolean parse(SocketAddress from) {
+        source = from;
+        length = buf.position();
+        truncated = length == buf.capacity();
+
+        if (truncated || length < HEADER_LEN || getVersion() != RTP_VERSION) return false;
+
+        int offset = HEADER_LEN + 4 * getCsrcCount();
+
+        if (hasExtension()) {
+            if (offset + 4 > length) return false;
+            offset += 4 + 4 * (buf.getShort(offset + 2) & 0xffff);
+        }
+
+        int end = length;
+        if (hasPadding()) {
+            end -= buf.get(length - 1) & 0xff;
+        }
+
+        if (offset > end) return false;
+
+        payloadOffset = offset;
+        payloadEnd = end;
+        return true;
+    }
+
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+
+    public int getVersion() {
+        return (buf.get(0) & 0xc0) >> 6;
+    }
+
+
+    public boolean hasPadding() {
+        return (buf.get(0) & 0x20) != 0;
+    }
+
+
+    public boolean hasExtension() {
+        return (buf.get(0) & 0x10) != 0;
+    }
+
+
+    public int getCsrcCount() {
+        return buf.get(0) & 0x0f;
+    }
+
+
+    public long getCsrc(int index) {
+        return buf.getInt(HEADER_LEN + 4 * index) & 0xffffffffL;
+    }
+
+
+// Header extension profile and length in bytes, -1 and 0 if there is none
+
+    public int getExtensionProfile() {
+        return hasExtension() ? buf.getShort(HEADER_LEN + 4 * getCsrcCount()) & 0xffff : -1;
+    }
+
+
+    public int getExtensionLength() {
+        return hasExtension() ? 4 * (buf.getShort(HEADER_LEN + 4 * getCsrcCount() + 2) & 0xffff) : 0;
+    }
+
+
+    public int getLength() {
+        return length;
+    }
+
+
+    public int getSequence() {
+        return buf.getShort(2) & 0xffff;
+    }
+
+
+    public long getTimestamp() {
+        return buf.getInt(4) & 0xffffffffL;
+    }
+
+
+    public long getSsrc() {
+        return buf.getInt(8) & 0xffffffffL;
+    }
+
+
+    public int getPayloadType() {
+        return buf.get(1) & 0x7f;
+    }
+
+
+    public boolean isMarker() {
+        return (buf.get(1) & 0x80) != 0;
+    }
+
+
+    public SocketAddress getSource() {
+        return source;
+    }
+
+
+    public int getPayloadLength() {
+        return payloadEnd - payloadOffset;
+    }
+
+
+    public ByteBuffer payload() {
+        ((Buffer) view).limit(payloadEnd).position(payloadOffset);
+        return view;
+    }
+
+
+    public int copyPayload(byte[] dst, int offset) {
+        int len = Math.min(getPayloadLength(), dst.length - offset);
+        payload().get(dst, offset, len);
+        return len;
+    }
+
+
+    public RtpPacket retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+
+    public void release() {
+        int left = refs.decrementAndGet();
+        if (left == 0) {
+            pool.recycle(this);
+        } else if (left < 0) {
+            refs.incrementAndGet();
+            throw new IllegalStateException("RTP packet released more times than retained");
+        }
+    }
+
+
+// Free packets ready for reuse.  When none are free a new one is made, a packet
+// released while the pool is full is left to the garbage collector.
+
+    public static class Pool {
+        private final int capacity;
+        private final ArrayBlockingQueue<RtpPacket> free;
+        private final AtomicLong created = new AtomicLong();
+
+        public Pool(int size, int capacity) {
+            this.capacity = capacity;
+            free = new ArrayBlockingQueue<>(size);
+            for (int i = 0; i < size; i++) free.add(new RtpPacket(this, capacity));
+            created.set(size);
+        }
+
+        RtpPacket acquire() {
+            RtpPacket pkt = free.poll();
+            if (pkt == null) {
+                created.incrementAndGet();
+                pkt = new RtpPacket(this, capacity);
+            }
+            pkt.refs.set(1);
+            return pkt;
+        }
+
+        private void recycle(RtpPacket pkt) {
+            pkt.source = null;
+            free.offer(pkt);
+        }
+
+        public JSONObject getStatus() {
+            return new JSONObject().put("free", free.size()).put("created", created.get());
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * RTP STREAM STATISTICS
+ *
+ * Reception quality of one forked media stream, kept the way an RTCP receiver report
+ * is in RFC 3550: extended highest sequence number with the dropout and misorder
+ * limits of appendix A.1, packets expected against received for cumulative loss and
+ * loss over the last interval, and the interarrival jitter estimate of A.8.  Also
+ * counted are packets that arrive out of order, duplicates, which are picked out with
+ * a bitmap of the last 64 sequence numbers, and changes of SSRC.
+ *
+ * Every count runs for the life of the stream across changes of SSRC and sequence
+ * restarts.  Only the sequence tracking starts again, packets expected from the runs
+ * before are kept aside and added in, so loss is always measured over the same
+ * packets as received.
+ *
+ * Updated only on the stream's receive thread so the fields are plain primitives with
+ * no locking, status readers on other threads may see values a packet or so old.
+ * Totals adds streams together for a gateway, including ones that have ended.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import org.json.JSONObject;
+
+public class RtpStreamStats {
+
+    static int MAX_DROPOUT = 3000;
+    static int MAX_MISORDER = 100;
+    static int INTERVAL_MSECS = 5000;
+
+    private static final int SEQ_MOD = 1 << 16;
+
+    private final int clockRate;
+
+    private long ssrc = -1;
+    private int maxSeq;
+    private long cycles;
+    private long baseSeq;
+    private long expectedBefore;
+    private int badSeq = -1;
+    private long window;
+    private long received;
+    private long duplicates;
+    private long outOfOrder;
+    private long ssrcChanges;
+    private long restarts;
+
+    private long lastTransit;
+    private long jitterQ4;
+    private long maxJitterQ4;
+
+    private long intervalStart;
+    private long expectedPrior;
+    private long receivedPrior;
+    private long intervalExpected;
+    private long intervalLost;
+
+
+    public RtpStreamStats(int clockRate) {
+        this.clockRate = clockRate;
+    }
+
+
+// Receive thread only
+
+    public void update(RtpPacket pkt, long arrivalNanos) {
+
+        int seq = pkt.getSequence();
+
+        if (pkt.getSsrc() != ssrc) {
+            if (ssrc >= 0) ssrcChanges++;
+            initSeq(seq);
+            ssrc = pkt.getSsrc();
+            intervalStart = arrivalNanos;
+
+        } else {
+            int udelta = (seq - maxSeq) & 0xffff;
+
+            if (udelta == 0) {
+                duplicates++;
+
+            } else if (udelta < MAX_DROPOUT) {
+                if (seq < maxSeq) cycles += SEQ_MOD;
+                window = udelta >= 64 ? 1 : window << udelta | 1;
+                maxSeq = seq;
+
+            } else if (udelta <= SEQ_MOD - MAX_MISORDER) {
+
+// A large jump is only believed when the next packet follows on from it, the sender
+// has probably restarted its sequence
+
+                if (seq != badSeq) {
+                    badSeq = (seq + 1) & 0xffff;
+                    return;
+                }
+                restarts++;
+                initSeq(seq);
+
+            } else {
+                int back = SEQ_MOD - udelta;
+                long bit = back < 64 ? 1L << back : 0;
+                if ((window & bit) != 0) {
+                    duplicates++;
+                } else {
+                    window |= bit;
+                    outOfOrder++;
+                }
+            }
+        }
+
+        received++;
+        jitter(pkt.getTimestamp(), arrivalNanos);
+
+        if (arrivalNanos - intervalStart >= INTERVAL_MSECS * 1000000L) {
+            long expected = getExpected();
+            intervalExpected = expected - expectedPrior;
+            intervalLost = intervalExpected - (received - receivedPrior);
+            expectedPrior = expected;
+            receivedPrior = received;
+            intervalStart = arrivalNanos;
+        }
+    }
+
+
+    public long getExpected() {
+        return ssrc < 0 ? 0 : expectedBefore + cycles + maxSeq - baseSeq + 1;
+    }
+
+
+    public long getReceived() {
+        return received;
+    }
+
+
+// Signed as in RFC 3550, duplicates can make it negative
+
+    public long getLost() {
+        return getExpected() - received;
+    }
+
+
+    public double getJitterMs() {
+        return 1000.0 * (jitterQ4 >> 4) / clockRate;
+    }
+
+
+    public JSONObject getStatus() {
+        long expected = getExpected();
+        return new JSONObject()
+                .put("ssrc", ssrc)
+                .put("expected", expected)
+                .put("received", received)
+                .put("lost", expected - received)
+                .put("lossPercent", percent(expected - received, expected))
+                .put("intervalLossPercent", percent(intervalLost, intervalExpected))
+                .put("jitterMs", getJitterMs())
+                .put("maxJitterMs", 1000.0 * (maxJitterQ4 >> 4) / clockRate)
+                .put("outOfOrder", outOfOrder)
+                .put("duplicates", duplicates)
+                .put("ssrcChanges", ssrcChanges)
+                .put("sequenceRestarts", restarts);
+    }
+
+
+// Folds what was expected from the run of sequence numbers just ended into the total
+// before starting on the new one
+
+    private void initSeq(int seq) {
+        expectedBefore = getExpected();
+        baseSeq = seq;
+        maxSeq = seq;
+        badSeq = -1;
+        cycles = 0;
+        window = 1;
+        lastTransit = Long.MIN_VALUE;
+    }
+
+
+// RFC 3550 A.8, arrival time in timestamp units, jitter kept scaled by 16
+
+    private void jitter(long ts, long arrivalNanos) {
+        long arrival = arrivalNanos / 1000 * clockRate / 1000000;
+        long transit = (int) (arrival - ts);
+
+        if (lastTransit != Long.MIN_VALUE) {
+            long d = Math.abs((int) (transit - lastTransit));
+            jitterQ4 += d - ((jitterQ4 + 8) >> 4);
+            if (jitterQ4 > maxJitterQ4) maxJitterQ4 = jitterQ4;
+        }
+        lastTransit = transit;
+    }
+
+
+    private static double percent(long part, long whole) {
+        return whole <= 0 ? 0 : Math.round(Math.max(0, part) * 10000.0 / whole) / 100.0;
+    }
+
+
+// Streams added together, the jitter figures are the mean and worst of the streams
+
+    public static class Totals {
+        private long streams;
+        private long expected;
+        private long received;
+        private long outOfOrder;
+        private long duplicates;
+        private long ssrcChanges;
+        private double jitterSum;
+        private double maxJitter;
+
+        public synchronized Totals add(RtpStreamStats s) {
+            if (s.ssrc < 0) return this;
+            streams++;
+            expected += s.getExpected();
+            received += s.received;
+            outOfOrder += s.outOfOrder;
+            duplicates += s.duplicates;
+            ssrcChanges += s.ssrcChanges;
+            jitterSum += s.getJitterMs();
+            maxJitter = Math.max(maxJitter, 1000.0 * (s.maxJitterQ4 >> 4) / s.clockRate);
+            return this;
+        }
+
+        public synchronized Totals add(Totals t) {
+            synchronized (t) {
+                streams += t.streams;
+                expected += t.expected;
+                received += t.received;
+                outOfOrder += t.outOfOrder;
+                duplicates += t.duplicates;
+                ssrcChanges += t.ssrcChanges;
+                jitterSum += t.jitterSum;
+                maxJitter = Math.max(maxJitter, t.maxJitter);
+            }
+            return this;
+        }
+
+        public synchronized JSONObject getStatus() {
+            return new JSONObject()
+                    .put("streams", streams)
+                    .put("expected", expected)
+                    .put("received", received)
+                    .put("lost", expected - received)
+                    .put("lossPercent", percent(expected - received, expected))
+                    .put("averageJitterMs", streams == 0 ? 0 : Math.round(jitterSum * 100 / streams) / 100.0)
+                    .put("maxJitterMs", maxJitter)
+                    .put("outOfOrder", outOfOrder)
+                    .put("duplicates", duplicates)
+                    .put("ssrcChanges", ssrcChanges);
+        }
+    }
+}
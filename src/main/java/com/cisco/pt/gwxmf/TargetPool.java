@@ -0,0 +1,215 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * NAMED MEDIA SERVER TARGET POOL
+ *
+ * Group of media servers that forked media can be sent to, selected by name in a
+ * forking request so IVR scripts need not know server addresses.  Servers are picked
+ * by smooth weighted round robin, by consistent hashing of the call GUID so the
+ * same call always lands on the same server while the pool is unchanged, or by
+ * fewest sessions in use relative to weight.  Servers failing their health check or
+ * with no free ports are passed over.
+ *
+ * Pools are loaded from a JSON file of the form:
+ *
+ *   {
+ *     "recorders": {
+ *       "policy": "weighted",
+ *       "servers": [
+ *         {"name": "rec1", "address": "10.1.1.10", "weight": 2,
+ *          "ports": "20000-20999", "health": "http://10.1.1.10:8080/health"},
+ *         {"name": "rec2", "address": "10.1.1.11", "ports": "20000-20999",
+ *          "health": "udp:7"}
+ *       ]
+ *     }
+ *   }
+ *
+ * Policy is weighted (default), hash or least.  Only least takes the load on each
+ * server into account, weighted spreads sessions by weight alone and stays the
+ * default so existing pools behave as before.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class TargetPool {
+
+    public enum Policy {
+        WEIGHTED,
+        HASH,
+        LEAST
+    }
+
+    static int HASH_POINTS_PER_WEIGHT = 100;
+
+    final String name;
+    final Policy policy;
+    final List<MediaServer> servers;
+
+    private final int[] current;
+    private final TreeMap<Integer, MediaServer> ring = new TreeMap<>();
+
+
+    public TargetPool(String name, Policy policy, List<MediaServer> servers) {
+        this.name = name;
+        this.policy = policy;
+        this.servers = servers;
+
+        current = new int[servers.size()];
+
+        for (MediaServer server : servers) {
+            for (int i = 0; i < server.weight * HASH_POINTS_PER_WEIGHT; i++) {
+                ring.put(hash(server.key() + "#" + i), server);
+            }
+        }
+    }
+
+
+    public MediaServer.Session allocate(String guid) {
+
+        for (MediaServer server : candidates(guid)) {
+            MediaServer.Session session = server.allocate(name);
+            if (session != null) return session;
+        }
+
+        return null;
+    }
+
+
+    public JSONObject getStatus() {
+        JSONArray list = new JSONArray();
+        servers.forEach((s) -> list.put(s.getStatus()));
+        return new JSONObject().put("pool", name).put("policy", policy).put("servers", list);
+    }
+
+
+// Servers in the order they should be tried for a new session
+
+    List<MediaServer> candidates(String guid) {
+
+        Set<MediaServer> order = new LinkedHashSet<>();
+
+        if (servers.isEmpty()) return new ArrayList<>();
+
+        if (policy == Policy.LEAST) {
+            List<MediaServer> least = new ArrayList<>(servers);
+            least.removeIf((s) -> !s.isHealthy());
+            least.sort(Comparator.comparingDouble((s) -> (double) s.getSessions() / s.weight));
+            return least;
+
+        } else if (policy == Policy.HASH && guid != null) {
+            Map.Entry<Integer, MediaServer> point = ring.ceilingEntry(hash(guid));
+            for (MediaServer server : point == null ? ring.values() : ring.tailMap(point.getKey()).values()) {
+                if (order.add(server) && order.size() == servers.size()) break;
+            }
+            for (MediaServer server : ring.values()) {
+                if (order.add(server) && order.size() == servers.size()) break;
+            }
+
+        } else {
+            MediaServer next = nextWeighted();
+            if (next != null) order.add(next);
+            order.addAll(servers);
+        }
+
+        order.removeIf((s) -> !s.isHealthy());
+        return new ArrayList<>(order);
+    }
+
+
+// Only healthy servers take part, so while one is down its share is spread over the
+// rest by weight instead of all falling to whichever is first in the list
+
+    private synchronized MediaServer nextWeighted() {
+
+        int best = -1;
+        int total = 0;
+        for (int i = 0; i < current.length; i++) {
+            MediaServer server = servers.get(i);
+            if (!server.isHealthy()) continue;
+
+            current[i] += server.weight;
+            total += server.weight;
+            if (best < 0 || current[i] > current[best]) best = i;
+        }
+
+        if (best < 0) return null;
+        current[best] -= total;
+        return servers.get(best);
+    }
+
+
+    static int hash(String key) {
+
+// FNV-1a then a final avalanche so similar keys spread evenly round the ring
+
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x01000193;
+        }
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+
+    public static Map<String, TargetPool> load(Path file, Map<String, TargetPool> previous) throws IOException {
+
+        Map<String, MediaServer> known = new HashMap<>();
+        previous.values().forEach((pool) -> pool.servers.forEach((s) -> known.put(s.key(), s)));
+
+        JSONObject cfg = new JSONObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        Map<String, TargetPool> pools = new LinkedHashMap<>();
+
+        for (String poolname : cfg.keySet()) {
+            JSONObject poolcfg = cfg.getJSONObject(poolname);
+            JSONArray list = poolcfg.getJSONArray("servers");
+            List<MediaServer> servers = new ArrayList<>();
+
+            for (int i = 0; i < list.length(); i++) {
+                MediaServer server = MediaServer.fromJSON(list.getJSONObject(i));
+                MediaServer existing = known.putIfAbsent(server.key(), server);
+                if (existing != null) {
+                    existing.configure(server);
+                    server = existing;
+                }
+                servers.add(server);
+            }
+
+            Policy policy = Policy.valueOf(poolcfg.optString("policy", "weighted").toUpperCase());
+            pools.put(poolname, new TargetPool(poolname, policy, servers));
+        }
+
+        return pools;
+    }
+}
@@ -0,0 +1,92 @@
+package com.cisco.pt.gwxmf;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * VIRTUAL THREAD SUPPORT
+ *
+ * Gives access to Java 21 virtual threads while the code is still built for and runs
+ * on Java 8.  Everything is looked up by reflection once, on an older runtime the
+ * lookups fail and callers are told virtual threads are not available so they can
+ * stay with platform threads.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+    private static final Method NAME = lookup(builderClass(), "name", String.class, long.class);
+    private static final Method FACTORY = lookup(builderClass(), "factory");
+    private static final Method PER_TASK = lookup(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null && NAME != null && FACTORY != null && PER_TASK != null;
+    }
+
+
+// Factory for virtual threads named prefix-1, prefix-2 ..., null if not available
+
+    public static ThreadFactory factory(String prefix) {
+        if (!isAvailable()) return null;
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix + "-", 1L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            System.out.println("Virtual threads not usable: " + ex);
+            return null;
+        }
+    }
+
+
+// Executor starting a new virtual thread for each task, null if not available
+
+    public static ExecutorService perTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        if (factory == null) return null;
+        try {
+            return (ExecutorService) PER_TASK.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            System.out.println("Virtual threads not usable: " + ex);
+            return null;
+        }
+    }
+
+
+// Methods are taken from the public Thread.Builder interface, the builder classes
+// themselves are internal to the JDK
+
+    private static Class<?> builderClass() {
+        try {
+            return Class.forName("java.lang.Thread$Builder");
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+    }
+
+
+    private static Method lookup(Class<?> cls, String name, Class<?>... params) {
+        if (cls == null) return null;
+        try {
+            return cls.getMethod(name, params);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -86,6 +86,14 @@ public class ObjectFactory {
         return new RequestXmfRegister();
     }
 
+    /**
+     * Create an instance of {@link RequestXmfUnRegister }
+     * 
+     */
+    public RequestXmfUnRegister createRequestXmfUnRegister() {
+        return new RequestXmfUnRegister();
+    }
+
     /**
      * Create an instance of {@link ApplicationData }
      * 
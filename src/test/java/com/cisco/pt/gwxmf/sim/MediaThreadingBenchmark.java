@@ -0,0 +1,292 @@
+package com.cisco.pt.gwxmf.sim;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * MEDIA THREADING BENCHMARK
+ *
+ * Compares the ways the controller can run its media path, on loopback with a set
+ * number of concurrent 20ms RTP streams:
+ *
+ *      selector        shared selector receive threads with pooled platform threads
+ *                      for transcription, the default
+ *      platform        a platform thread per stream doing blocking receives
+ *      virtual         a virtual thread per stream for receive and for transcription,
+ *                      Java 21 or later only
+ *
+ * Each stream also holds a command thread for its whole run, as a transcription does
+ * while it waits on the speech service's responses, and its audio consumer blocks for
+ * a while on every frame as sending to the speech service can.  Latency is from the
+ * packet being sent to its frame reaching the consumer.  Platform thread counts come
+ * from the JVM, virtual threads are not included in them.  Sent, consumed and latency
+ * cover the measured period, frames dropped by full stream queues the whole run.
+ *
+ *   WEBINF=target/forkctrl-1.2/WEB-INF
+ *   java -cp "target/test-classes:$WEBINF/classes:$WEBINF/lib/*" \
+ *        com.cisco.pt.gwxmf.sim.MediaThreadingBenchmark streams=1000 seconds=20
+ *
+ * Arguments (name=value):
+ *      streams         Concurrent streams (default 1000)
+ *      seconds         Measured run time per mode (default 20)
+ *      warmup          Seconds run before measuring (default 5)
+ *      modes           Comma separated modes to run
+ *                      (default selector,platform,virtual)
+ *      block           Milliseconds the consumer blocks per frame (default 1)
+ *      senders         Sending threads (default 2)
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import com.cisco.pt.gwxmf.MediaQueue;
+import com.cisco.pt.gwxmf.MediaReceiver;
+import com.cisco.pt.gwxmf.VirtualThreads;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+public class MediaThreadingBenchmark {
+
+    static final int PTIME_MSECS = 20;
+    static final int PAYLOAD_LEN = 160;
+    static final int BUCKET_MICROS = 10;
+    static final int BUCKETS = 200000;
+
+    private final int streams;
+    private final int blockMsecs;
+    private final int senders;
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS + 1);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private volatile boolean measuring;
+
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> opts = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                System.out.println("Ignoring argument " + arg + ", expected name=value");
+            } else {
+                opts.put(kv[0].toLowerCase(), kv[1]);
+            }
+        }
+
+        int streams = Integer.parseInt(opts.getOrDefault("streams", "1000"));
+        int seconds = Integer.parseInt(opts.getOrDefault("seconds", "20"));
+        int warmup = Integer.parseInt(opts.getOrDefault("warmup", "5"));
+        int block = Integer.parseInt(opts.getOrDefault("block", "1"));
+        int senders = Integer.parseInt(opts.getOrDefault("senders", "2"));
+
+        System.out.printf("Java %s, %d processors, %d streams, consumer blocks %d ms per frame%n",
+                System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(), streams, block);
+        System.out.printf("%n%-10s %10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "mode", "threads", "peak", "sent", "consumed", "dropped", "p50 ms", "p99 ms", "max ms");
+
+        for (String mode : opts.getOrDefault("modes", "selector,platform,virtual").split("\\s*,\\s*")) {
+            if (mode.equals("virtual") && !VirtualThreads.isAvailable()) {
+                System.out.printf("%-10s needs Java 21 or later, skipped%n", mode);
+                continue;
+            }
+            new MediaThreadingBenchmark(streams, block, senders).run(mode, warmup, seconds);
+            System.gc();
+            Thread.sleep(1000);
+        }
+    }
+
+
+    MediaThreadingBenchmark(int streams, int blockMsecs, int senders) {
+        this.streams = streams;
+        this.blockMsecs = blockMsecs;
+        this.senders = senders;
+    }
+
+
+    void run(String mode, int warmup, int seconds) throws Exception {
+
+        MediaReceiver receiver;
+        ExecutorService commands;
+
+        switch (mode) {
+            case "selector":
+                receiver = new MediaReceiver("bench-rx", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+                commands = platformPool();
+                break;
+
+            case "platform":
+                AtomicInteger n = new AtomicInteger();
+                receiver = new MediaReceiver((r) -> {
+                    Thread t = new Thread(r, "bench-rx-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+                commands = platformPool();
+                break;
+
+            case "virtual":
+                receiver = new MediaReceiver(VirtualThreads.factory("bench-rx"));
+                commands = VirtualThreads.perTaskExecutor("bench-command");
+                break;
+
+            default:
+                System.out.println("Unknown mode " + mode);
+                return;
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        CountDownLatch finished = new CountDownLatch(1);
+        List<DatagramChannel> channels = new ArrayList<>();
+        List<MediaReceiver.Registration> regs = new ArrayList<>();
+        List<InetSocketAddress> targets = new ArrayList<>();
+        List<MediaQueue> queues = new ArrayList<>();
+
+        for (int i = 0; i < streams; i++) {
+            DatagramChannel chn = DatagramChannel.open();
+            chn.bind(new InetSocketAddress("127.0.0.1", 0));
+            channels.add(chn);
+            targets.add((InetSocketAddress) chn.getLocalAddress());
+
+// Stands in for the transcription's wait on the speech service responses
+
+            commands.execute(() -> {
+                try {
+                    finished.await();
+                } catch (InterruptedException ex) { }
+            });
+
+            MediaQueue queue = new MediaQueue(50, MediaQueue.Policy.DROP_OLDEST, commands, this::consume);
+            queues.add(queue);
+            regs.add(receiver.register(chn, (pkt) -> queue.offer(pkt.payload())));
+        }
+
+        List<Thread> sending = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            List<InetSocketAddress> share = new ArrayList<>();
+            for (int i = s; i < targets.size(); i += senders) share.add(targets.get(i));
+            Thread t = new Thread(() -> send(share, finished), "bench-tx-" + (s + 1));
+            t.setDaemon(true);
+            t.start();
+            sending.add(t);
+        }
+
+        Thread.sleep(1000L * warmup);
+        threads.resetPeakThreadCount();
+        measuring = true;
+        Thread.sleep(1000L * seconds);
+        measuring = false;
+
+        int live = threads.getThreadCount();
+        int peak = threads.getPeakThreadCount();
+        long dropped = queues.stream().mapToLong((q) -> q.getStatus().getLong("dropped")).sum();
+
+        finished.countDown();
+        for (Thread t : sending) t.join();
+        regs.forEach(MediaReceiver.Registration::cancel);
+        receiver.close();
+        for (DatagramChannel chn : channels) chn.close();
+        commands.shutdownNow();
+
+        System.out.printf("%-10s %10d %10d %10d %10d %10d %10.2f %10.2f %10.2f%n",
+                mode, live, peak, sent.get(), consumed.get(), dropped,
+                percentile(0.5), percentile(0.99), percentile(1.0));
+    }
+
+
+    private void send(List<InetSocketAddress> targets, CountDownLatch finished) {
+
+        try (DatagramChannel chn = DatagramChannel.open()) {
+            ByteBuffer pkt = ByteBuffer.allocate(12 + PAYLOAD_LEN);
+            int seq = 0;
+            long next = System.nanoTime();
+
+            while (finished.getCount() > 0) {
+                for (InetSocketAddress target : targets) {
+                    ((Buffer) pkt).clear();
+                    pkt.put((byte) 0x80).put((byte) 0).putShort((short) seq).putInt(seq * PAYLOAD_LEN).putInt(target.getPort());
+                    pkt.putLong(System.nanoTime());
+                    ((Buffer) pkt).position(pkt.capacity());
+                    ((Buffer) pkt).flip();
+                    chn.send(pkt, target);
+                    if (measuring) sent.incrementAndGet();
+                }
+                seq++;
+
+                next += PTIME_MSECS * 1000000L;
+                long wait = next - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+        } catch (Exception ex) {
+            if (finished.getCount() > 0) System.out.println("Sender failed: " + ex);
+        }
+    }
+
+
+    private void consume(ByteBuffer frame) {
+
+        long micros = (System.nanoTime() - frame.getLong(frame.position())) / 1000;
+
+        if (measuring) {
+            consumed.incrementAndGet();
+            latency.incrementAndGet((int) Math.min(BUCKETS, Math.max(0, micros / BUCKET_MICROS)));
+        }
+
+        if (blockMsecs > 0) {
+            try {
+                Thread.sleep(blockMsecs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private double percentile(double p) {
+        long total = 0;
+        for (int i = 0; i <= BUCKETS; i++) total += latency.get(i);
+        if (total == 0) return 0;
+
+        long want = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            seen += latency.get(i);
+            if (seen >= want) return (i + 1) * BUCKET_MICROS / 1000.0;
+        }
+        return BUCKETS * BUCKET_MICROS / 1000.0;
+    }
+
+
+    private static ExecutorService platformPool() {
+        AtomicInteger n = new AtomicInteger();
+        return new ThreadPoolExecutor(16, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (r) -> {
+            Thread t = new Thread(r, "bench-command-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,139 @@
+package com.cisco.pt.gwxmf.sim;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * SYNTHETIC RTP SOURCE
+ *
+ * Sends G.711 mu-law RTP at 20ms packetisation for every forked stream of every
+ * simulated gateway from a single pacing thread.  Each stream has its own socket
+ * bound to the gateway address so streams are distinguishable by source port as
+ * they would be from a real gateway.  Payload is a 400Hz tone.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class RtpEmitter {
+
+    static final int PTIME_MSECS = 20;
+    static final int SAMPLES = 8 * PTIME_MSECS;
+    static final int HEADER_LEN = 12;
+
+    private static final byte[] TONE = new byte[SAMPLES];
+
+    static {
+        for (int i = 0; i < SAMPLES; i++) {
+            TONE[i] = linearToUlaw((int) (8000 * Math.sin(2 * Math.PI * 400 * i / 8000.0)));
+        }
+    }
+
+    private final ConcurrentHashMap<String, Stream> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService pacer;
+    private final SimStats stats;
+
+
+    public RtpEmitter(SimStats stats) {
+        this.stats = stats;
+        pacer = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "sim-rtp");
+            t.setDaemon(true);
+            return t;
+        });
+        pacer.scheduleAtFixedRate(this::sendAll, PTIME_MSECS, PTIME_MSECS, TimeUnit.MILLISECONDS);
+    }
+
+
+    public void start(String key, String srcaddr, String dstaddr, int dstport) throws IOException {
+        Stream old = streams.put(key, new Stream(srcaddr, new InetSocketAddress(dstaddr, dstport)));
+        if (old != null) old.close();
+    }
+
+
+    public void stop(String key) {
+        Stream s = streams.remove(key);
+        if (s != null) s.close();
+    }
+
+
+    public void shutdown() {
+        pacer.shutdownNow();
+        streams.values().forEach(Stream::close);
+        streams.clear();
+    }
+
+
+    private void sendAll() {
+        streams.values().forEach((s) -> {
+            try {
+                s.send();
+                stats.rtpPackets.incrementAndGet();
+            } catch (IOException ex) {
+                // Target not listening yet or gone, keep pacing regardless
+            }
+        });
+    }
+
+
+    static byte linearToUlaw(int sample) {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) sample = -sample;
+        sample = Math.min(sample, 32635) + 0x84;
+
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) exponent--;
+
+        int mantissa = (sample >> (exponent + 3)) & 0x0f;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+
+    private static class Stream {
+        private final DatagramChannel chn;
+        private final InetSocketAddress target;
+        private final ByteBuffer pkt = ByteBuffer.allocate(HEADER_LEN + SAMPLES);
+        private final int ssrc = ThreadLocalRandom.current().nextInt();
+        private int seq = ThreadLocalRandom.current().nextInt(0x10000);
+        private int timestamp = ThreadLocalRandom.current().nextInt();
+
+        Stream(String srcaddr, InetSocketAddress target) throws IOException {
+            this.target = target;
+            chn = DatagramChannel.open();
+            chn.bind(new InetSocketAddress(srcaddr, 0));
+        }
+
+        void send() throws IOException {
+            ((Buffer) pkt).clear();
+            pkt.put((byte) 0x80).put((byte) 0)
+               .putShort((short) seq).putInt(timestamp).putInt(ssrc)
+               .put(TONE);
+            ((Buffer) pkt).flip();
+            chn.send(pkt, target);
+            seq = (seq + 1) & 0xffff;
+            timestamp += SAMPLES;
+        }
+
+        void close() {
+            try { chn.close(); } catch (IOException ex) { }
+        }
+    }
+}
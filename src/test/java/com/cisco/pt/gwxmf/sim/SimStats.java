@@ -0,0 +1,68 @@
+package com.cisco.pt.gwxmf.sim;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * SIMULATOR COUNTERS
+ *
+ * Totals shared by all simulated gateways plus a millisecond histogram of how long
+ * the controller takes to answer notifications, from which percentiles are reported.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SimStats {
+
+    static final int HISTOGRAM_MSECS = 10000;
+
+    final AtomicLong registrations = new AtomicLong();
+    final AtomicLong callsOffered = new AtomicLong();
+    final AtomicLong callsActive = new AtomicLong();
+    final AtomicLong forkStarts = new AtomicLong();
+    final AtomicLong forkStops = new AtomicLong();
+    final AtomicLong forksActive = new AtomicLong();
+    final AtomicLong notifications = new AtomicLong();
+    final AtomicLong notifyErrors = new AtomicLong();
+    final AtomicLong probes = new AtomicLong();
+    final AtomicLong rtpPackets = new AtomicLong();
+
+    private final AtomicLongArray latency = new AtomicLongArray(HISTOGRAM_MSECS + 1);
+
+
+    void recordLatency(long msecs) {
+        latency.incrementAndGet((int) Math.min(Math.max(msecs, 0), HISTOGRAM_MSECS));
+    }
+
+
+    long percentile(double pct) {
+
+        long total = 0;
+        for (int i = 0; i <= HISTOGRAM_MSECS; i++) total += latency.get(i);
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(total * pct / 100), seen = 0;
+        for (int i = 0; i <= HISTOGRAM_MSECS; i++) {
+            if ((seen += latency.get(i)) >= rank) return i;
+        }
+        return HISTOGRAM_MSECS;
+    }
+
+
+    String report() {
+        return String.format("registrations %d, calls %d (active %d), forks %d/%d (active %d), notifications %d (errors %d), probes %d, rtp packets %d, notify latency p50 %dms p99 %dms max %dms",
+                registrations.get(), callsOffered.get(), callsActive.get(), forkStarts.get(), forkStops.get(), forksActive.get(),
+                notifications.get(), notifyErrors.get(), probes.get(), rtpPackets.get(), percentile(50), percentile(99), percentile(100));
+    }
+}
@@ -0,0 +1,489 @@
+package com.cisco.pt.gwxmf.sim;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * SIMULATED IOS XMF PROVIDER
+ *
+ * Gateway side of the uc wsapi XMF provider for one simulated gateway address.
+ * Listens on the XMF provider URL the controller expects (port 8090, /cisco_xmf),
+ * accepts application registration, unregistration and media forking requests, then
+ * once registered sends probes and call connection notifications to the application
+ * URL given in the registration.  Notifications are sent from the gateway address
+ * so the controller sees them arrive from the right host, forked media is handed to
+ * the RTP emitter.
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import com.cisco.schema.cisco_xmf.v1_0.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPBody;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPElement;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPFault;
+import javax.xml.soap.SOAPMessage;
+import org.w3c.dom.Document;
+
+
+public class SimulatedGateway {
+
+    static final String XMF_XMLNS = "http://www.cisco.com/schema/cisco_xmf/v1_0";
+    static final int XMF_PORT = 8090;
+    static final String XMF_PATH = "/cisco_xmf";
+    static final int HTTP_TIMEOUT_MSECS = 10000;
+
+    public enum Arrival {
+        CONSTANT,
+        POISSON,
+        BURST
+    }
+
+    private final String addr;
+    private final SimStats stats;
+    private final RtpEmitter rtp;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService sender;
+    private final JAXBContext jaxbCtx;
+    private final MessageFactory msgfct;
+    private final HttpServer server;
+
+    private final ConcurrentHashMap<String, SimCall> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger transaction = new AtomicInteger();
+    private final AtomicInteger callseq = new AtomicInteger();
+    private final AtomicInteger probeseq = new AtomicInteger();
+
+    private volatile String appurl;
+    private volatile String regid;
+    private volatile boolean running;
+    private volatile boolean probing;
+
+    Arrival arrival = Arrival.POISSON;
+    double callsPerSec = 1;
+    int burstSize = 10;
+    int holdSecs = 30;
+    int probeSecs = 30;
+    String calledPrefix = "8000";
+
+
+    public SimulatedGateway(String addr, SimStats stats, RtpEmitter rtp, ScheduledExecutorService scheduler, ExecutorService sender) throws IOException, JAXBException, SOAPException {
+        this.addr = addr;
+        this.stats = stats;
+        this.rtp = rtp;
+        this.scheduler = scheduler;
+        this.sender = sender;
+
+        jaxbCtx = JAXBContext.newInstance("com.cisco.schema.cisco_xmf.v1_0");
+        msgfct = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+        server = HttpServer.create(new InetSocketAddress(addr, XMF_PORT), 64);
+        server.createContext(XMF_PATH, this::handle);
+        server.setExecutor(sender);
+    }
+
+
+    public void start() {
+        server.start();
+        System.out.printf("Simulated gateway listening on http://%s:%d%s%n", addr, XMF_PORT, XMF_PATH);
+    }
+
+
+    public void stop() {
+        running = false;
+        server.stop(0);
+        calls.values().forEach(this::stopForking);
+    }
+
+
+// Requests from the controller
+
+    private void handle(HttpExchange exch) throws IOException {
+
+        SOAPMessage rsp;
+
+        try (InputStream in = exch.getRequestBody()) {
+            SOAPMessage req = msgfct.createMessage(null, in);
+            Document doc = req.getSOAPBody().extractContentAsDocument();
+            Unmarshaller unmar = jaxbCtx.createUnmarshaller();
+
+            switch (doc.getDocumentElement().getLocalName()) {
+                case "RequestXmfRegister":
+                    rsp = register(unmar.unmarshal(doc, RequestXmfRegister.class).getValue());
+                    break;
+
+                case "RequestXmfUnRegister":
+                    running = false;
+                    rsp = msgfct.createMessage();
+                    break;
+
+                case "RequestXmfCallMediaForking":
+                    rsp = forking(unmar.unmarshal(doc, RequestXmfCallMediaForking.class).getValue());
+                    break;
+
+                default:
+                    rsp = fault(doc.getDocumentElement().getLocalName(), "Unsupported request");
+                    break;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            rsp.writeTo(out);
+            exch.getResponseHeaders().set("Content-Type", "application/soap+xml; charset=utf-8");
+            exch.sendResponseHeaders(200, out.size());
+            try (OutputStream os = exch.getResponseBody()) {
+                out.writeTo(os);
+            }
+
+        } catch (JAXBException | SOAPException ex) {
+            System.out.println("Simulated gateway " + addr + " bad request: " + ex);
+            exch.sendResponseHeaders(400, -1);
+        } finally {
+            exch.close();
+        }
+    }
+
+
+    private SOAPMessage register(RequestXmfRegister reg) throws JAXBException, SOAPException {
+
+        appurl = reg.getApplicationData().getUrl();
+        regid = addr + "-" + UUID.randomUUID().toString().substring(0, 8);
+        stats.registrations.incrementAndGet();
+
+        MsgHeader hdr = new MsgHeader();
+        hdr.setTransactionID(reg.getMsgHeader().getTransactionID());
+        hdr.setRegistrationID(regid);
+
+        ResponseXmfRegister rsp = new ResponseXmfRegister();
+        rsp.setMsgHeader(hdr);
+        rsp.setProviderStatus("IN_SERVICE");
+
+        if (!running) {
+            running = true;
+            scheduler.schedule(this::nextArrival, nextArrivalMsecs(), TimeUnit.MILLISECONDS);
+            if (!probing) {
+                probing = true;
+                scheduler.scheduleAtFixedRate(this::probe, probeSecs, probeSecs, TimeUnit.SECONDS);
+            }
+        }
+
+        return message(rsp);
+    }
+
+
+    private SOAPMessage forking(RequestXmfCallMediaForking fork) throws JAXBException, SOAPException {
+
+        String callid = fork.getCallID();
+        SimCall call = calls.get(callid);
+
+        if (call == null) {
+            return fault("RequestXmfCallMediaForking", "Call " + callid + " not found");
+        }
+
+        EnableMediaForking enable = fork.getAction().getEnableMediaForking();
+
+        try {
+            if (enable != null) {
+                rtp.start(callid + ":near", addr, enable.getNearEndAddr().getIpv4(), Integer.parseInt(enable.getNearEndAddr().getPort()));
+                rtp.start(callid + ":far", addr, enable.getFarEndAddr().getIpv4(), Integer.parseInt(enable.getFarEndAddr().getPort()));
+                if (!call.forking) stats.forksActive.incrementAndGet();
+                call.forking = true;
+                stats.forkStarts.incrementAndGet();
+                sender.execute(() -> notifyForking(call, "STARTED"));
+
+            } else {
+                stopForking(call);
+            }
+
+        } catch (IOException | NumberFormatException ex) {
+            return fault("RequestXmfCallMediaForking", "Invalid fork target: " + ex.getMessage());
+        }
+
+        MsgHeader hdr = new MsgHeader();
+        hdr.setTransactionID(fork.getMsgHeader().getTransactionID());
+        hdr.setRegistrationID(regid);
+
+        ResponseXmfCallMediaForking rsp = new ResponseXmfCallMediaForking();
+        rsp.setMsgHeader(hdr);
+        return message(rsp);
+    }
+
+
+    private void stopForking(SimCall call) {
+        rtp.stop(call.callid + ":near");
+        rtp.stop(call.callid + ":far");
+        if (call.forking) {
+            call.forking = false;
+            stats.forksActive.decrementAndGet();
+            stats.forkStops.incrementAndGet();
+            sender.execute(() -> notifyForking(call, "STOPPED"));
+        }
+    }
+
+
+// Call traffic generation
+
+    private long nextArrivalMsecs() {
+        switch (arrival) {
+            case CONSTANT:
+                return Math.round(1000 / callsPerSec);
+
+            case BURST:
+                return Math.round(1000 * burstSize / callsPerSec);
+
+            default:
+                return Math.round(-1000 * Math.log(1 - ThreadLocalRandom.current().nextDouble()) / callsPerSec);
+        }
+    }
+
+
+    private void nextArrival() {
+        if (!running) return;
+
+        int count = arrival == Arrival.BURST ? burstSize : 1;
+        for (int i = 0; i < count; i++) {
+            sender.execute(this::newCall);
+        }
+
+        scheduler.schedule(this::nextArrival, nextArrivalMsecs(), TimeUnit.MILLISECONDS);
+    }
+
+
+    private void newCall() {
+
+        int n = callseq.incrementAndGet();
+        SimCall call = new SimCall(Integer.toString(n), n);
+        calls.put(call.callid, call);
+        stats.callsOffered.incrementAndGet();
+        stats.callsActive.incrementAndGet();
+
+        notifyConnection(call, call.inleg, "CONNECTED", "INCOMING");
+        notifyConnection(call, call.outleg, "CONNECTED", "OUTGOING");
+
+        long hold = Math.max(1000, Math.round(-1000 * holdSecs * Math.log(1 - ThreadLocalRandom.current().nextDouble())));
+        scheduler.schedule(() -> sender.execute(() -> endCall(call)), hold, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void endCall(SimCall call) {
+        stopForking(call);
+        notifyConnection(call, call.outleg, "DISCONNECTED", "OUTGOING");
+        notifyConnection(call, call.inleg, "DISCONNECTED", "INCOMING");
+        calls.remove(call.callid);
+        stats.callsActive.decrementAndGet();
+    }
+
+
+// Notifications to the controller
+
+    private void notifyConnection(SimCall call, String connid, String state, String direction) {
+
+        NotifyXmfConnectionData cn = new NotifyXmfConnectionData();
+        cn.setMsgHeader(header());
+        cn.setCallData(callData(call, state));
+
+        ConnData conn = new ConnData();
+        conn.setConnID(connid);
+        conn.setState(state);
+        cn.setConnData(conn);
+
+        if ("CONNECTED".equals(state)) {
+            CallingAddrData cg = new CallingAddrData();
+            cg.setType("E164");
+            cg.setAddr(call.calling);
+
+            CalledAddrData cd = new CalledAddrData();
+            cd.setType("E164");
+            cd.setAddr(call.called);
+
+            ConnDetailData detail = new ConnDetailData();
+            detail.setConnData(conn);
+            detail.setGuid(call.guid);
+            detail.setCallingAddrData(cg);
+            detail.setCalledAddrData(cd);
+            detail.setConnIntfType("CONN_SIP");
+            detail.setConnDirectionType(direction);
+
+            Connected connected = new Connected();
+            connected.setConnDetailData(detail);
+            Event event = new Event();
+            event.setConnected(connected);
+            cn.setEvent(event);
+        }
+
+        send(cn);
+    }
+
+
+    private void notifyForking(SimCall call, String state) {
+
+        MediaForking mf = new MediaForking();
+        mf.setMediaForkingState(state);
+        MediaEvent me = new MediaEvent();
+        me.setMediaForking(mf);
+
+        NotifyXmfCallData cd = new NotifyXmfCallData();
+        cd.setMsgHeader(header());
+        cd.setCallData(callData(call, "ACTIVE"));
+        cd.setMediaEvent(me);
+
+        send(cd);
+    }
+
+
+    private void probe() {
+        if (!running || appurl == null) return;
+
+        try {
+            SOAPMessage msg = msgfct.createMessage();
+            SOAPElement solicit = msg.getSOAPBody().addChildElement(new QName(XMF_XMLNS, "SolicitXmfProbing"));
+            SOAPElement hdr = solicit.addChildElement(new QName(XMF_XMLNS, "msgHeader"));
+            hdr.addChildElement(new QName(XMF_XMLNS, "transactionID")).addTextNode(Integer.toString(transaction.incrementAndGet()));
+            hdr.addChildElement(new QName(XMF_XMLNS, "registrationID")).addTextNode(regid);
+            solicit.addChildElement(new QName(XMF_XMLNS, "sequence")).addTextNode(Integer.toString(probeseq.incrementAndGet()));
+            solicit.addChildElement(new QName(XMF_XMLNS, "interval")).addTextNode(Integer.toString(probeSecs));
+
+            stats.probes.incrementAndGet();
+            post(msg);
+
+        } catch (SOAPException | IOException ex) {
+            stats.notifyErrors.incrementAndGet();
+        }
+    }
+
+
+    private void send(Object jaxbe) {
+        if (appurl == null) return;
+
+        try {
+            stats.notifications.incrementAndGet();
+            post(message(jaxbe));
+        } catch (JAXBException | SOAPException | IOException ex) {
+            stats.notifyErrors.incrementAndGet();
+        }
+    }
+
+
+// HTTP is sent from a socket bound to the simulated gateway address because the
+// controller identifies the gateway by the remote address of each notification
+
+    private void post(SOAPMessage msg) throws IOException, SOAPException {
+
+        URL url = new URL(appurl);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        msg.writeTo(body);
+
+        long started = System.currentTimeMillis();
+
+        try (Socket sock = new Socket()) {
+            sock.bind(new InetSocketAddress(addr, 0));
+            sock.connect(new InetSocketAddress(url.getHost(), url.getPort() < 0 ? 80 : url.getPort()), HTTP_TIMEOUT_MSECS);
+            sock.setSoTimeout(HTTP_TIMEOUT_MSECS);
+
+            String hdr = "POST " + url.getFile() + " HTTP/1.1\r\n"
+                       + "Host: " + url.getHost() + "\r\n"
+                       + "Content-Type: application/soap+xml; charset=utf-8\r\n"
+                       + "Content-Length: " + body.size() + "\r\n"
+                       + "Connection: close\r\n\r\n";
+
+            OutputStream out = sock.getOutputStream();
+            out.write(hdr.getBytes(StandardCharsets.US_ASCII));
+            body.writeTo(out);
+            out.flush();
+
+            InputStream in = sock.getInputStream();
+            StringBuilder status = new StringBuilder();
+            for (int c; (c = in.read()) != -1 && c != '\n'; ) status.append((char) c);
+            byte[] drain = new byte[4096];
+            while (in.read(drain) != -1) { }
+
+            stats.recordLatency(System.currentTimeMillis() - started);
+            if (!status.toString().matches("HTTP/1\\.\\d 2\\d\\d.*\\s*")) {
+                stats.notifyErrors.incrementAndGet();
+            }
+        }
+    }
+
+
+    private SOAPMessage message(Object jaxbe) throws JAXBException, SOAPException {
+        SOAPMessage msg = msgfct.createMessage();
+        jaxbCtx.createMarshaller().marshal(jaxbe, msg.getSOAPBody());
+        return msg;
+    }
+
+
+    private SOAPMessage fault(String operation, String text) throws SOAPException {
+        SOAPMessage msg = msgfct.createMessage();
+        SOAPBody body = msg.getSOAPBody();
+        SOAPFault fault = body.addFault(SOAPConstants.SOAP_SENDER_FAULT, "XMF request rejected");
+        SOAPElement entry = fault.addDetail().addDetailEntry(new QName(XMF_XMLNS, "xmfError"));
+        entry.addChildElement("operation").addTextNode(operation);
+        entry.addChildElement("text").addTextNode(text);
+        return msg;
+    }
+
+
+    private MsgHeader header() {
+        MsgHeader hdr = new MsgHeader();
+        hdr.setTransactionID(Integer.toString(transaction.incrementAndGet()));
+        hdr.setRegistrationID(regid);
+        return hdr;
+    }
+
+
+    private CallData callData(SimCall call, String state) {
+        CallData cd = new CallData();
+        cd.setCallID(call.callid);
+        cd.setState(state);
+        return cd;
+    }
+
+
+    private class SimCall {
+        final String callid;
+        final String inleg;
+        final String outleg;
+        final String guid;
+        final String calling;
+        final String called;
+        volatile boolean forking;
+
+        SimCall(String callid, int n) {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            this.callid = callid;
+            inleg = Integer.toString(2 * n);
+            outleg = Integer.toString(2 * n + 1);
+            guid = String.format("0x%08X-0x%08X-0x%08X-0x%08X", rnd.nextInt(), rnd.nextInt(), rnd.nextInt(), rnd.nextInt());
+            calling = String.format("408555%04d", n % 10000);
+            called = calledPrefix + String.format("%04d", n % 10000);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.cisco.pt.gwxmf.sim;
+
+/*
+ * ===================================================================================
+ * IMPORTANT
+ *
+ * This sample is intended for distribution on Cisco DevNet. It does not form part of
+ * the product release software and is not Cisco TAC supported. You should refer
+ * to the Cisco DevNet website for the support rules that apply to samples published
+ * for download.
+ * ===================================================================================
+ *
+ * IOS XMF PROVIDER SIMULATOR
+ *
+ * Standalone load and soak test driver standing in for a fleet of IOS gateways, so
+ * the controller can be exercised on loopback without real hardware.  Each simulated
+ * gateway takes its own loopback address, so configure the controller with those
+ * addresses in GatewayHostList and the controller itself listening on loopback.
+ *
+ * Built with the test classes so it is not deployed with the servlet, run it after
+ * mvn package from those and the built web app classes, for example:
+ *
+ *   WEBINF=target/forkctrl-1.2/WEB-INF
+ *   java -cp "target/test-classes:$WEBINF/classes:$WEBINF/lib/*" \
+ *        com.cisco.pt.gwxmf.sim.XmfProviderSimulator gateways=4 rate=2 hold=60
+ *
+ * Arguments (name=value):
+ *      gateways        Number of simulated gateways (default 1)
+ *      base            First gateway address, others follow on (default 127.0.0.10)
+ *      arrival         Call arrival pattern CONSTANT, POISSON or BURST
+ *                      (default POISSON)
+ *      rate            Mean calls per second per gateway (default 1)
+ *      burst           Calls per burst for BURST arrivals (default 10)
+ *      hold            Mean call holding time in seconds, exponential (default 30)
+ *      probe           Probe interval in seconds (default 30)
+ *      called          Called number prefix (default 8000)
+ *      duration        Seconds to run, 0 to run until stopped (default 0)
+ *      report          Seconds between statistics reports (default 10)
+ *      threads         Notification sender threads (default 16)
+ *
+ * -----------------------------------------------------------------------------------
+ * 1.0,  19 Oct 2026 Initial version
+ * -----------------------------------------------------------------------------------
+ */
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+public class XmfProviderSimulator {
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> opts = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                System.out.println("Ignoring argument " + arg + ", expected name=value");
+            } else {
+                opts.put(kv[0].toLowerCase(), kv[1]);
+            }
+        }
+
+        int gateways = Integer.parseInt(opts.getOrDefault("gateways", "1"));
+        byte[] base = InetAddress.getByName(opts.getOrDefault("base", "127.0.0.10")).getAddress();
+        int duration = Integer.parseInt(opts.getOrDefault("duration", "0"));
+        int report = Integer.parseInt(opts.getOrDefault("report", "10"));
+
+        SimStats stats = new SimStats();
+        RtpEmitter rtp = new RtpEmitter(stats);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        ExecutorService sender = Executors.newFixedThreadPool(Integer.parseInt(opts.getOrDefault("threads", "16")));
+
+        List<SimulatedGateway> sims = new ArrayList<>();
+        StringBuilder hostlist = new StringBuilder();
+
+        for (int i = 0; i < gateways; i++) {
+            byte[] ip = base.clone();
+            int last = (ip[3] & 0xff) + i;
+            ip[2] += last >> 8;
+            ip[3] = (byte) last;
+            String addr = InetAddress.getByAddress(ip).getHostAddress();
+
+            SimulatedGateway gw = new SimulatedGateway(addr, stats, rtp, scheduler, sender);
+            gw.arrival = SimulatedGateway.Arrival.valueOf(opts.getOrDefault("arrival", "POISSON").toUpperCase());
+            gw.callsPerSec = Double.parseDouble(opts.getOrDefault("rate", "1"));
+            gw.burstSize = Integer.parseInt(opts.getOrDefault("burst", "10"));
+            gw.holdSecs = Integer.parseInt(opts.getOrDefault("hold", "30"));
+            gw.probeSecs = Integer.parseInt(opts.getOrDefault("probe", "30"));
+            gw.calledPrefix = opts.getOrDefault("called", "8000");
+            gw.start();
+
+            sims.add(gw);
+            hostlist.append(i == 0 ? "" : ",").append(addr);
+        }
+
+        System.out.printf("%n%-40s%s%n%n", "Set controller GatewayHostList to:", hostlist);
+
+        scheduler.scheduleAtFixedRate(() -> System.out.println(stats.report()), report, report, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            sims.forEach(SimulatedGateway::stop);
+            rtp.shutdown();
+            System.out.println("Final: " + stats.report());
+        }));
+
+        if (duration > 0) {
+            Thread.sleep(1000L * duration);
+            System.exit(0);
+        }
+    }
+}